@@ -0,0 +1,66 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.mromanak.bungieapireader.service.SyntheticWorldContent.Change;
+import static com.mromanak.bungieapireader.service.SyntheticWorldContent.INVENTORY_ITEM_TABLE;
+import static com.mromanak.bungieapireader.service.SyntheticWorldContent.definitionJson;
+
+/**
+ * Cost of diffing a single pair of definitions, for each kind of change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffEntryBenchmark {
+
+    private static final int INDEX = 42;
+    private static final int HASH = INDEX * 0x9E3779B1 + 0x7F4A7C15;
+
+    @Param({"UNCHANGED", "UPDATED", "ADDED", "REMOVED", "REDACTED", "REVEALED"})
+    private Change change;
+
+    @Param({JsonDiffStrategy.KEYED, JsonDiffStrategy.JSON_PATCH})
+    private String engine;
+
+    private DbDiffService diffService;
+    private String newJson;
+    private String oldJson;
+
+    @Setup
+    public void setUp() {
+        diffService = new DbDiffService(new ObjectMapper(), null, null, new SimpleMeterRegistry(), 1, 1, 16, 100, 100,
+            engine, false, "merge");
+        oldJson = change == Change.ADDED ? null : definitionJson(INDEX, HASH, 0, change == Change.REVEALED);
+        newJson = change == Change.REMOVED ? null :
+            definitionJson(INDEX, HASH, change == Change.UPDATED ? 1 : 0, change == Change.REDACTED);
+    }
+
+    @TearDown
+    public void tearDown() {
+        diffService.shutdown();
+    }
+
+    @Benchmark
+    public DbDiffEntry createDiffEntry() {
+        return diffService.createDiffEntry(INVENTORY_ITEM_TABLE, HASH & 0xFFFFFFFFL, newJson, oldJson);
+    }
+}
@@ -0,0 +1,105 @@
+package com.mromanak.bungieapireader.service;
+
+import com.mromanak.bungieapireader.config.RestConfig;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for {@link PublicApiService#downloadWorldContent} to fetch a zipped synthetic content file from a loopback HTTP
+ * server and unzip it, through the same pooled HTTP client the application uses. With the network out of the way, this
+ * is dominated by writing the archive and inflating it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DownloadBenchmark {
+
+    private static final String FILE_NAME = "/common/destiny2_content/sqlite/en/world_sql_content_benchmark.content";
+
+    @Param({"20000"})
+    private int rows;
+
+    private Path directory;
+    private Path scratchDirectory;
+    private HttpServer server;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private PublicApiService publicApiService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("download-benchmark");
+        scratchDirectory = Files.createDirectory(directory.resolve("scratch"));
+        Path contentPath = directory.resolve("world_sql_content_benchmark.content");
+        Path archivePath = directory.resolve("world_sql_content_benchmark.zip");
+        SyntheticWorldContent.generate(directory.resolve("old.content"), contentPath, rows, 0.05);
+        SyntheticWorldContent.zip(contentPath, archivePath);
+
+        byte[] archive = Files.readAllBytes(archivePath);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(FILE_NAME, exchange -> {
+            exchange.sendResponseHeaders(200, archive.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(archive);
+            }
+        });
+        server.start();
+
+        RestConfig restConfig = new RestConfig();
+        connectionManager = restConfig.bungieConnectionManager(50, 20);
+        RestTemplate restTemplate = restConfig.genericRestTemplate(restConfig.bungieRequestFactory(
+            restConfig.bungieHttpClient(connectionManager, 5000, 5000, 30000, 30000)));
+        publicApiService = new PublicApiService(restTemplate, event -> {
+        }, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(publicApiService, "scratchDirectory", scratchDirectory.toString());
+        ReflectionTestUtils.setField(publicApiService, "baseUrl",
+            "http://localhost:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(publicApiService, "apiKey", "benchmark");
+        ReflectionTestUtils.setField(publicApiService, "downloadMaxAttempts", 1);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDownload() throws IOException {
+        FileUtils.cleanDirectory(scratchDirectory.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        connectionManager.close();
+        publicApiService.shutdown();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public Path downloadWorldContent() throws IOException {
+        return publicApiService.downloadWorldContent(FILE_NAME);
+    }
+}
@@ -0,0 +1,135 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mromanak.bungieapireader.model.BungieResponseWrapper;
+import com.mromanak.bungieapireader.model.DestinyManifest;
+import com.mromanak.bungieapireader.model.ExportResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to export a synthetic content file into an empty metadata DB: digesting and compressing every exported row,
+ * recording digests for every table and, optionally, building the definition index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final String FILE_NAME = "/common/destiny2_content/sqlite/en/world_sql_content_benchmark.content";
+
+    @Param({"20000"})
+    private int rows;
+
+    @Param({"false", "true"})
+    private boolean index;
+
+    private Path directory;
+    private Path contentPath;
+    private ContentDataSourceRegistry contentDataSources;
+    private ContentService contentService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("export-benchmark");
+        contentPath = directory.resolve("world_sql_content_benchmark.content");
+        SyntheticWorldContent.generate(directory.resolve("old.content"), contentPath, rows, 0.05);
+        contentDataSources = new ContentDataSourceRegistry(4, 8, 2, 268435456L, 16384);
+    }
+
+    @Setup(Level.Invocation)
+    public void createContentService() throws IOException {
+        Path metadataPath = directory.resolve("metadata.db");
+        Files.deleteIfExists(metadataPath);
+        FileUtils.deleteDirectory(directory.resolve("index").toFile());
+        SQLiteDataSource metadataDataSource = new SQLiteDataSource();
+        metadataDataSource.setUrl("jdbc:sqlite:" + metadataPath);
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(metadataDataSource);
+        JdbcTemplate metadataJdbcTemplate = new JdbcTemplate(metadataDataSource);
+
+        DefinitionIndexStore indexStore = new DefinitionIndexStore(contentDataSources);
+        ReflectionTestUtils.setField(indexStore, "scratchDirectory", directory.toString());
+        DefinitionBlobStore blobStore = new DefinitionBlobStore(metadataJdbcTemplate);
+        DefinitionHistoryService historyService = new DefinitionHistoryService(metadataJdbcTemplate, blobStore,
+            contentDataSources, new ObjectMapper(), JsonDiffStrategy.KEYED, 16, 32 * 1024 * 1024);
+        contentService = new ContentService(metadataJdbcTemplate, new LocalContentApiService(contentPath),
+            new DefinitionDigestService(metadataJdbcTemplate, contentDataSources), blobStore, contentDataSources,
+            indexStore, historyService, new SimpleMeterRegistry(), 0);
+        ReflectionTestUtils.setField(contentService, "scratchDirectory", directory.toString());
+        ReflectionTestUtils.setField(contentService, "exportChunkSize", 5000);
+        ReflectionTestUtils.setField(contentService, "incrementalExport", true);
+        ReflectionTestUtils.setField(contentService, "indexExport", index);
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdownContentService() {
+        contentService.shutdown();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        contentDataSources.shutdown();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public ExportResponse exportContent() throws IOException {
+        return contentService.exportContent();
+    }
+
+    /**
+     * Serves a manifest that points at the generated file, which is already "downloaded".
+     */
+    private static class LocalContentApiService extends PublicApiService {
+
+        private final Path contentPath;
+
+        private LocalContentApiService(Path contentPath) {
+            super(null, event -> {
+            }, new SimpleMeterRegistry());
+            this.contentPath = contentPath;
+        }
+
+        @Override
+        public ResponseEntity<BungieResponseWrapper<DestinyManifest>> getManifest() {
+            DestinyManifest manifest = new DestinyManifest();
+            manifest.setMobileWorldContentPaths(Collections.singletonMap("en", FILE_NAME));
+            BungieResponseWrapper<DestinyManifest> response = new BungieResponseWrapper<>();
+            response.setResponse(manifest);
+            return ResponseEntity.ok(response);
+        }
+
+        @Override
+        public Path downloadWorldContent(String fileName) {
+            return contentPath;
+        }
+    }
+}
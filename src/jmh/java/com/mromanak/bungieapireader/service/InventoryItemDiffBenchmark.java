@@ -0,0 +1,96 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end time to build an inventory item diff DB from two synthetic content files, including reading both files,
+ * diffing every row, bulk loading the diff DB and indexing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InventoryItemDiffBenchmark {
+
+    @Param({"20000"})
+    private int rows;
+
+    @Param({"0.05", "0.5"})
+    private double changeRate;
+
+    @Param({JsonDiffStrategy.KEYED, JsonDiffStrategy.JSON_PATCH})
+    private String engine;
+
+    @Param({"attach", "merge"})
+    private String mode;
+
+    private Path directory;
+    private Path oldDbPath;
+    private Path newDbPath;
+    private Path diffDbPath;
+    private ContentDataSourceRegistry contentDataSources;
+    private DbDiffService diffService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("diff-benchmark");
+        oldDbPath = directory.resolve("old.content");
+        newDbPath = directory.resolve("new.content");
+        diffDbPath = directory.resolve("diff.db");
+        SyntheticWorldContent.generate(oldDbPath, newDbPath, rows, changeRate);
+
+        SQLiteDataSource metadataDataSource = new SQLiteDataSource();
+        metadataDataSource.setUrl("jdbc:sqlite:" + directory.resolve("metadata.db"));
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(metadataDataSource);
+
+        contentDataSources = new ContentDataSourceRegistry(4, 8, 2, 268435456L, 16384);
+        DefinitionDigestService digestService = new DefinitionDigestService(new JdbcTemplate(metadataDataSource),
+            contentDataSources);
+        diffService = new DbDiffService(new ObjectMapper(), digestService, contentDataSources,
+            new SimpleMeterRegistry(), 0, 4, 1024, 5000, 100, engine, false, mode);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDiffDb() throws IOException {
+        Files.deleteIfExists(diffDbPath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        diffService.shutdown();
+        contentDataSources.shutdown();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Benchmark
+    public List<String> createInventoryItemDiffDb() throws IOException {
+        return diffService.createInventoryItemDiffDb(newDbPath, oldDbPath, diffDbPath);
+    }
+}
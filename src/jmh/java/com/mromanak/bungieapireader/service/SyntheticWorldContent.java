@@ -0,0 +1,230 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates pairs of world content DBs with a given number of inventory items and a given share of them changed
+ * between the two versions. Everything is derived from a fixed seed, so the same parameters always produce the same
+ * files and benchmark results stay comparable from run to run.
+ * <p>
+ * Run {@link #main} to generate a pair for manual testing: {@code SyntheticWorldContent <directory> <rows>
+ * <changeRate>}.
+ */
+public final class SyntheticWorldContent {
+
+    static final String INVENTORY_ITEM_TABLE = "DestinyInventoryItemDefinition";
+    static final String LORE_TABLE = "DestinyLoreDefinition";
+
+    private static final long SEED = 20190601L;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final String[] TIER_TYPE_NAMES = {"Unknown", "Currency", "Basic", "Common", "Rare", "Legendary",
+        "Exotic"};
+
+    private SyntheticWorldContent() {
+    }
+
+    public enum Change {
+        UNCHANGED,
+        UPDATED,
+        ADDED,
+        REMOVED,
+        REDACTED,
+        REVEALED
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args[0]);
+        Files.createDirectories(directory);
+        generate(directory.resolve("old.content"), directory.resolve("new.content"), Integer.parseInt(args[1]),
+            Double.parseDouble(args[2]));
+    }
+
+    /**
+     * Writes an old and a new world content DB. Of the {@code rows} items, {@code changeRate} of them differ between
+     * the two: most are updated, and the rest are split between added, removed, redacted and revealed.
+     */
+    static void generate(Path oldDbPath, Path newDbPath, int rows, double changeRate) {
+        Random random = new Random(SEED);
+        try (Connection oldDb = open(oldDbPath);
+             Connection newDb = open(newDbPath);
+             PreparedStatement oldItems = insert(oldDb, INVENTORY_ITEM_TABLE);
+             PreparedStatement newItems = insert(newDb, INVENTORY_ITEM_TABLE);
+             PreparedStatement oldLore = insert(oldDb, LORE_TABLE);
+             PreparedStatement newLore = insert(newDb, LORE_TABLE)) {
+
+            for (int index = 0; index < rows; index++) {
+                // An odd multiplier spreads the hashes over the whole 32-bit range without ever repeating one
+                int hash = index * 0x9E3779B1 + 0x7F4A7C15;
+                Change change = changeFor(random, changeRate);
+                if (change != Change.ADDED) {
+                    addRow(oldItems, hash, definitionJson(index, hash, 0, change == Change.REVEALED));
+                }
+                if (change != Change.REMOVED) {
+                    int revision = change == Change.UPDATED ? 1 : 0;
+                    addRow(newItems, hash, definitionJson(index, hash, revision, change == Change.REDACTED));
+                }
+                if (index % 4 == 0) {
+                    addRow(oldLore, hash, loreJson(index, hash, 0));
+                    addRow(newLore, hash, loreJson(index, hash, change == Change.UPDATED ? 1 : 0));
+                }
+            }
+
+            for (PreparedStatement statement : new PreparedStatement[]{oldItems, newItems, oldLore, newLore}) {
+                statement.executeBatch();
+            }
+            oldDb.commit();
+            newDb.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Generating world content failed: " + e.getMessage(), e);
+        }
+    }
+
+    static Change changeFor(Random random, double changeRate) {
+        if (random.nextDouble() >= changeRate) {
+            return Change.UNCHANGED;
+        }
+        int kind = random.nextInt(20);
+        return kind < 14 ? Change.UPDATED :
+            kind < 16 ? Change.ADDED :
+            kind < 18 ? Change.REMOVED :
+            kind < 19 ? Change.REDACTED : Change.REVEALED;
+    }
+
+    /**
+     * Returns an inventory item shaped like the real ones: display properties, inventory, stats keyed by stat hash,
+     * sockets with plug lists and perks. A later {@code revision} changes some stat values and reorders one plug list.
+     */
+    static String definitionJson(int index, int hash, int revision, boolean redacted) {
+        Random random = new Random(SEED ^ index);
+        ObjectNode definition = OBJECT_MAPPER.createObjectNode();
+
+        ObjectNode displayProperties = definition.putObject("displayProperties");
+        displayProperties.put("description", "Synthetic item " + index + ", revision " + revision + ".");
+        displayProperties.put("name", "Item " + index);
+        displayProperties.put("icon", "/common/destiny2_content/icons/" + Integer.toHexString(hash) + ".jpg");
+        displayProperties.put("hasIcon", true);
+
+        int tierType = random.nextInt(TIER_TYPE_NAMES.length);
+        definition.put("itemTypeDisplayName", "Type " + random.nextInt(30));
+        definition.put("itemType", random.nextInt(27));
+        definition.put("itemSubType", random.nextInt(30));
+        definition.put("classType", random.nextInt(4));
+
+        ObjectNode inventory = definition.putObject("inventory");
+        inventory.put("maxStackSize", 1);
+        inventory.put("bucketTypeHash", 1498876634L + random.nextInt(12));
+        inventory.put("tierType", tierType);
+        inventory.put("tierTypeName", TIER_TYPE_NAMES[tierType]);
+
+        ObjectNode stats = definition.putObject("stats");
+        stats.put("statGroupHash", 1000000L + random.nextInt(50));
+        ObjectNode statsByHash = stats.putObject("stats");
+        for (int i = 0; i < 6; i++) {
+            long statHash = 1480404414L + i * 7919L;
+            ObjectNode stat = statsByHash.putObject(Long.toString(statHash));
+            stat.put("statHash", statHash);
+            stat.put("value", random.nextInt(100) + (i % 2 == 0 ? revision : 0));
+            stat.put("minimum", 0);
+            stat.put("maximum", 100);
+        }
+
+        ArrayNode socketEntries = definition.putObject("sockets").putArray("socketEntries");
+        for (int i = 0; i < 4; i++) {
+            ObjectNode socketEntry = socketEntries.addObject();
+            socketEntry.put("socketTypeHash", 2000000L + random.nextInt(1000));
+            socketEntry.put("singleInitialItemHash", 3000000L + random.nextInt(100000));
+            ArrayNode plugItems = socketEntry.putArray("reusablePlugItems");
+            int plugs = 3 + random.nextInt(4);
+            for (int j = 0; j < plugs; j++) {
+                int plug = i == 0 ? (j + revision) % plugs : j;
+                plugItems.addObject().put("plugItemHash", 4000000L + index * 10L + plug);
+            }
+        }
+
+        ArrayNode perks = definition.putArray("perks");
+        for (int i = 0; i < 2; i++) {
+            ObjectNode perk = perks.addObject();
+            perk.put("requirementDisplayString", "");
+            perk.put("perkHash", 5000000L + random.nextInt(100000));
+            perk.put("perkVisibility", 0);
+        }
+
+        definition.put("hash", hash & 0xFFFFFFFFL);
+        definition.put("index", index);
+        definition.put("redacted", redacted);
+        definition.put("blacklisted", false);
+        return definition.toString();
+    }
+
+    static void zip(Path dbPath, Path zipPath) {
+        try (OutputStream outputStream = Files.newOutputStream(zipPath);
+             ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            zipOutputStream.putNextEntry(new ZipEntry(dbPath.getFileName().toString()));
+            Files.copy(dbPath, zipOutputStream);
+            zipOutputStream.closeEntry();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String loreJson(int index, int hash, int revision) {
+        ObjectNode lore = OBJECT_MAPPER.createObjectNode();
+        lore.putObject("displayProperties").
+            put("description", "Lore entry " + index + ", revision " + revision + ".").
+            put("name", "Lore " + index).
+            put("hasIcon", false);
+        lore.put("subtitle", "Synthetic lore");
+        lore.put("hash", hash & 0xFFFFFFFFL);
+        lore.put("index", index);
+        lore.put("redacted", false);
+        lore.put("blacklisted", false);
+        return lore.toString();
+    }
+
+    private static Connection open(Path path) throws SQLException {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + path.toAbsolutePath());
+        Connection connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = OFF");
+            statement.execute("PRAGMA synchronous = OFF");
+            for (String table : new String[]{INVENTORY_ITEM_TABLE, LORE_TABLE}) {
+                statement.execute("CREATE TABLE " + table + " (id INTEGER PRIMARY KEY NOT NULL, json BLOB)");
+            }
+        }
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    private static PreparedStatement insert(Connection connection, String table) throws SQLException {
+        return connection.prepareStatement("INSERT INTO " + table + " (id, json) VALUES (?, ?)");
+    }
+
+    private static void addRow(PreparedStatement statement, int hash, String json) throws SQLException {
+        statement.setInt(1, hash);
+        statement.setString(2, json);
+        statement.addBatch();
+    }
+}
@@ -1,14 +1,104 @@
 package com.mromanak.bungieapireader.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class RestConfig {
 
     @Bean
-    public RestTemplate genericRestTemplate() {
-        return new RestTemplate();
+    public RestTemplate genericRestTemplate(ClientHttpRequestFactory bungieRequestFactory) {
+        return new RestTemplate(bungieRequestFactory);
+    }
+
+    /**
+     * Request factory shared by every client of the Bungie API, so they all draw on one pool of keep-alive connections.
+     * The client asks for gzip/deflate responses and decompresses them transparently.
+     */
+    @Bean
+    public ClientHttpRequestFactory bungieRequestFactory(CloseableHttpClient bungieHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(bungieHttpClient);
+    }
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager bungieConnectionManager(
+        @Value("${http.client.maxTotal:50}") int maxTotal,
+        @Value("${http.client.maxPerRoute:20}") int maxPerRoute)
+    {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(2000);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient bungieHttpClient(PoolingHttpClientConnectionManager bungieConnectionManager,
+        @Value("${http.client.connectTimeoutMillis:5000}") int connectTimeoutMillis,
+        @Value("${http.client.connectionRequestTimeoutMillis:5000}") int connectionRequestTimeoutMillis,
+        @Value("${http.client.socketTimeoutMillis:30000}") int socketTimeoutMillis,
+        @Value("${http.client.keepAliveMillis:30000}") long keepAliveMillis)
+    {
+        RequestConfig requestConfig = RequestConfig.custom().
+            setConnectTimeout(connectTimeoutMillis).
+            setConnectionRequestTimeout(connectionRequestTimeoutMillis).
+            setSocketTimeout(socketTimeoutMillis).
+            build();
+
+        // Keep connections for as long as the server allows, or keepAliveMillis if it doesn't say
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? serverKeepAlive : keepAliveMillis;
+        };
+
+        return HttpClients.custom().
+            setConnectionManager(bungieConnectionManager).
+            setDefaultRequestConfig(requestConfig).
+            setKeepAliveStrategy(keepAliveStrategy).
+            evictExpiredConnections().
+            evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS).
+            build();
+    }
+
+    @Bean
+    public MeterBinder bungieConnectionPoolMetrics(PoolingHttpClientConnectionManager bungieConnectionManager) {
+        return registry -> {
+            Gauge.builder("httpcomponents.httpclient.pool.total.max", bungieConnectionManager,
+                cm -> cm.getTotalStats().getMax()).
+                description("Maximum number of pooled connections to the Bungie API").
+                register(registry);
+            Gauge.builder("httpcomponents.httpclient.pool.total.connections", bungieConnectionManager,
+                cm -> cm.getTotalStats().getLeased()).
+                tag("state", "leased").
+                description("Pooled connections to the Bungie API that are in use").
+                register(registry);
+            Gauge.builder("httpcomponents.httpclient.pool.total.connections", bungieConnectionManager,
+                cm -> cm.getTotalStats().getAvailable()).
+                tag("state", "available").
+                description("Idle pooled connections to the Bungie API").
+                register(registry);
+            Gauge.builder("httpcomponents.httpclient.pool.total.pending", bungieConnectionManager,
+                cm -> cm.getTotalStats().getPending()).
+                description("Requests waiting for a pooled connection to the Bungie API").
+                register(registry);
+            Gauge.builder("httpcomponents.httpclient.pool.routes", bungieConnectionManager,
+                cm -> cm.getRoutes().size()).
+                description("Routes with pooled connections to the Bungie API").
+                register(registry);
+        };
     }
 }
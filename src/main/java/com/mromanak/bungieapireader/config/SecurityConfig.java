@@ -5,6 +5,7 @@ import com.mromanak.bungieapireader.util.NoOpTokenServices;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.ResourceHttpMessageConverter;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -36,12 +37,14 @@ public class SecurityConfig {
 
     @Bean
     public OAuth2RestTemplate secureRestTemplate(AuthorizationCodeResourceDetails bungieResourceDetails,
-        OAuth2ClientContext clientContext)
+        OAuth2ClientContext clientContext, ClientHttpRequestFactory bungieRequestFactory)
     {
         OAuth2RestTemplate secureRestTemplate = new OAuth2RestTemplate(bungieResourceDetails, clientContext);
+        secureRestTemplate.setRequestFactory(bungieRequestFactory);
 
         AuthorizationCodeAccessTokenProvider tokenProvider = new AuthorizationCodeAccessTokenProvider();
         tokenProvider.setTokenRequestEnhancer(new BungieApiRequestEnhancer());
+        tokenProvider.setRequestFactory(bungieRequestFactory);
         secureRestTemplate.setAccessTokenProvider(tokenProvider);
 
         List<HttpMessageConverter<?>> messageConverters = new ArrayList<>(secureRestTemplate.getMessageConverters());
@@ -70,7 +73,8 @@ public class SecurityConfig {
                     addFilterAfter(clientContextFilter, AbstractPreAuthenticatedProcessingFilter.class).
                     addFilterAfter(ssoFilter, OAuth2ClientContextFilter.class).
                     authorizeRequests().
-                        antMatchers("/", "/login**", "/logout", "/webjars/**", "/public/**", "/content/**", "/error").
+                        antMatchers("/", "/login**", "/logout", "/webjars/**", "/public/**", "/content/**", "/error",
+                            "/actuator/prometheus").
                             permitAll().
                         anyRequest().
                             authenticated().
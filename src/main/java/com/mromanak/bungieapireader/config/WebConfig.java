@@ -0,0 +1,23 @@
+package com.mromanak.bungieapireader.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Value("${streaming.timeoutMillis:0}")
+    private long streamingTimeoutMillis;
+
+    /**
+     * Streamed responses, such as a whole diff table or a batch of definitions, run as async requests. The container's
+     * default timeout (30 seconds on Tomcat) would cut them off partway for a slow client, after the status has been
+     * sent, so they get their own.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(streamingTimeoutMillis);
+    }
+}
@@ -2,18 +2,28 @@ package com.mromanak.bungieapireader.controller;
 
 import com.mromanak.bungieapireader.model.DiffRequest;
 import com.mromanak.bungieapireader.model.DiffResponse;
-import com.mromanak.bungieapireader.model.ExportResponse;
+import com.mromanak.bungieapireader.model.JobStatus;
 import com.mromanak.bungieapireader.service.ContentService;
 import com.mromanak.bungieapireader.service.DbDiffService;
+import com.mromanak.bungieapireader.service.DefinitionHistoryService;
+import com.mromanak.bungieapireader.service.JobService;
+import com.mromanak.bungieapireader.service.JobService.JobTask;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import javax.validation.Valid;
-import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @Controller
 @RequestMapping("/content")
@@ -21,24 +31,74 @@ public class ContentController {
 
     private final ContentService contentService;
     private final DbDiffService diffService;
+    private final DefinitionHistoryService historyService;
+    private final JobService jobService;
 
     @Autowired
-    public ContentController(ContentService contentService, DbDiffService diffService) {
+    public ContentController(ContentService contentService, DbDiffService diffService,
+        DefinitionHistoryService historyService, JobService jobService)
+    {
         this.contentService = contentService;
         this.diffService = diffService;
+        this.historyService = historyService;
+        this.jobService = jobService;
     }
 
     @RequestMapping("/export")
-    public ResponseEntity<ExportResponse> export() throws IOException {
-        return ResponseEntity.ok(contentService.exportContent());
+    public ResponseEntity<JobStatus> export() {
+        return submit("export", contentService::exportContent);
+    }
+
+    @PostMapping("/diff")
+    public ResponseEntity<JobStatus> diffAll(@Valid @RequestBody DiffRequest diffRequest) {
+        return submit("diff", progress -> diffResponse(diffRequest, diffService.createDiffDb(
+            diffRequest.getNewDbPath(), diffRequest.getOldDbPath(), diffRequest.getDiffDbPath(), progress)));
     }
 
     @PostMapping("/diff/inventoryItem")
-    public ResponseEntity<DiffResponse> diff(@Valid @RequestBody DiffRequest diffRequest) throws IOException {
+    public ResponseEntity<JobStatus> diff(@Valid @RequestBody DiffRequest diffRequest) {
+        return submit("inventoryItemDiff", progress -> diffResponse(diffRequest, diffService.createInventoryItemDiffDb(
+            diffRequest.getNewDbPath(), diffRequest.getOldDbPath(), diffRequest.getDiffDbPath(), progress)));
+    }
+
+    @PostMapping("/history")
+    public ResponseEntity<JobStatus> recordHistory() {
+        return submit("history", historyService::recordAll);
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<List<JobStatus>> jobs() {
+        return ResponseEntity.ok(jobService.statuses());
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<JobStatus> job(@PathVariable String jobId) {
+        return ResponseEntity.of(jobService.status(jobId));
+    }
+
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<JobStatus> cancelJob(@PathVariable String jobId) {
+        return ResponseEntity.of(jobService.cancel(jobId));
+    }
+
+    private ResponseEntity<JobStatus> submit(String type, JobTask<?> task) {
+        JobStatus status;
+        try {
+            status = jobService.submit(type, task);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        URI location = ServletUriComponentsBuilder.fromCurrentContextPath().
+            path("/content/jobs/{jobId}").
+            buildAndExpand(status.getJobId()).
+            toUri();
+        return ResponseEntity.accepted().location(location).body(status);
+    }
 
-        diffService.createInventoryItemDiffDb(diffRequest.getNewDbPath(), diffRequest.getOldDbPath(), diffRequest.getDiffDbPath());
+    private DiffResponse diffResponse(DiffRequest diffRequest, List<String> diffTables) {
         DiffResponse response = new DiffResponse();
         response.setDiffDbPath(diffRequest.getDiffDbPath());
-        return ResponseEntity.ok(response);
+        response.setDiffTables(diffTables);
+        return response;
     }
 }
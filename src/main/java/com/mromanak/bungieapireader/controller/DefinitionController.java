@@ -0,0 +1,86 @@
+package com.mromanak.bungieapireader.controller;
+
+import com.mromanak.bungieapireader.service.DefinitionLookupService;
+import com.mromanak.bungieapireader.service.DefinitionLookupService.CachedDefinition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8;
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8_VALUE;
+
+/**
+ * Serves definitions as the UTF-8 JSON they are stored with. Bodies are written straight from the cached bytes, without
+ * being parsed or re-serialized.
+ */
+@Controller
+@RequestMapping("/content")
+public class DefinitionController {
+
+    private final DefinitionLookupService lookupService;
+
+    @Autowired
+    public DefinitionController(DefinitionLookupService lookupService) {
+        this.lookupService = lookupService;
+    }
+
+    /**
+     * Returns a definition from the given content file, or the latest one. Responses carry a strong ETag, so clients
+     * that send it back in {@code If-None-Match} get a 304.
+     */
+    @GetMapping(path = "/{table}/{hash}", produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<byte[]> definition(@PathVariable String table, @PathVariable long hash,
+        @RequestParam(required = false) Long fileId)
+    {
+        try {
+            return lookupService.lookup(table, hash, fileId).
+                map(d -> ResponseEntity.ok().eTag(d.getETag()).body(d.getJson())).
+                orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Returns the definitions with the given hashes that exist, in the order they were asked for, as a JSON array
+     * spliced together from the stored documents.
+     */
+    @PostMapping(path = "/{table}/batch", produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<StreamingResponseBody> definitions(@PathVariable String table,
+        @RequestBody List<Long> hashes, @RequestParam(required = false) Long fileId)
+    {
+        List<CachedDefinition> definitions;
+        try {
+            definitions = lookupService.lookupAll(table, hashes, fileId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        long contentLength = 2 + Math.max(0, definitions.size() - 1);
+        for (CachedDefinition definition : definitions) {
+            contentLength += definition.getJson().length;
+        }
+        return ResponseEntity.ok().
+            contentType(APPLICATION_JSON_UTF8).
+            contentLength(contentLength).
+            body(outputStream -> {
+                outputStream.write('[');
+                for (int i = 0; i < definitions.size(); i++) {
+                    if (i > 0) {
+                        outputStream.write(',');
+                    }
+                    outputStream.write(definitions.get(i).getJson());
+                }
+                outputStream.write(']');
+            });
+    }
+}
@@ -0,0 +1,108 @@
+package com.mromanak.bungieapireader.controller;
+
+import com.mromanak.bungieapireader.model.DiffChange;
+import com.mromanak.bungieapireader.model.DiffPage;
+import com.mromanak.bungieapireader.model.DiffSummary;
+import com.mromanak.bungieapireader.service.DiffQueryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads the entries of a diff DB created by {@code /content/diff}, either a page at a time or as one stream.
+ */
+@Controller
+@RequestMapping("/content/diff")
+public class DiffController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final DiffQueryService diffQueryService;
+
+    @Autowired
+    public DiffController(DiffQueryService diffQueryService) {
+        this.diffQueryService = diffQueryService;
+    }
+
+    /**
+     * Returns a page of entries from a diff table. Pass the page's {@code nextAfter} as {@code after} to get the next
+     * one.
+     */
+    @GetMapping("/{table}")
+    public ResponseEntity<DiffPage> page(@PathVariable String table, @RequestParam String diffDbPath,
+        @RequestParam(required = false) String change, @RequestParam(defaultValue = "-1") long after,
+        @RequestParam(defaultValue = "500") int limit)
+    {
+        try {
+            return ResponseEntity.ok(diffQueryService.page(Paths.get(diffDbPath), table, changeFor(change), after,
+                limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Returns the change counts, facet breakdowns and most-changed paths recorded while the diff DB was built.
+     */
+    @GetMapping("/{table}/summary")
+    public ResponseEntity<DiffSummary> summary(@PathVariable String table, @RequestParam String diffDbPath) {
+        try {
+            return ResponseEntity.of(diffQueryService.summary(Paths.get(diffDbPath), table));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Streams every entry of a diff table as newline-delimited JSON, gzipped if the client accepts it.
+     */
+    @GetMapping("/{table}/stream")
+    public ResponseEntity<StreamingResponseBody> stream(@PathVariable String table, @RequestParam String diffDbPath,
+        @RequestParam(required = false) String change, @RequestParam(defaultValue = "-1") long after,
+        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, defaultValue = "") String acceptEncoding)
+    {
+        Path path = Paths.get(diffDbPath);
+        DiffChange diffChange;
+        try {
+            diffChange = changeFor(change);
+            diffQueryService.checkTable(path, table);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        boolean gzip = acceptEncoding.contains("gzip");
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().
+            contentType(NDJSON).
+            header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(outputStream -> {
+            if (gzip) {
+                try (OutputStream gzipStream = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE)) {
+                    diffQueryService.stream(path, table, diffChange, after, gzipStream);
+                }
+            } else {
+                diffQueryService.stream(path, table, diffChange, after, outputStream);
+            }
+        });
+    }
+
+    private static DiffChange changeFor(String change) {
+        return change == null ? null : DiffChange.forColumn(change);
+    }
+}
@@ -0,0 +1,57 @@
+package com.mromanak.bungieapireader.controller;
+
+import com.mromanak.bungieapireader.model.HistoryEntry;
+import com.mromanak.bungieapireader.service.DefinitionHistoryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.util.List;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON_UTF8_VALUE;
+
+/**
+ * Serves definitions as they were in any content file recorded in the history, and the changes made to them over time.
+ * Files are recorded after each export, or all at once with {@code POST /content/history}.
+ */
+@Controller
+@RequestMapping("/content/history")
+public class HistoryController {
+
+    private final DefinitionHistoryService historyService;
+
+    @Autowired
+    public HistoryController(DefinitionHistoryService historyService) {
+        this.historyService = historyService;
+    }
+
+    /**
+     * Returns a definition as it was in the given content file, or the latest recorded one. The ETag is weak, as the
+     * JSON is rebuilt from patches rather than stored byte for byte.
+     */
+    @GetMapping(path = "/{table}/{hash}", produces = APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<byte[]> definition(@PathVariable String table, @PathVariable long hash,
+        @RequestParam(required = false) Long fileId)
+    {
+        try {
+            return historyService.definition(table, hash, fileId).
+                map(d -> ResponseEntity.ok().eTag("W/\"" + d.getJsonMd5() + "\"").body(d.getJson())).
+                orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Lists the content files in which a definition was added, changed or removed, oldest first.
+     */
+    @GetMapping("/{table}/{hash}/timeline")
+    public ResponseEntity<List<HistoryEntry>> timeline(@PathVariable String table, @PathVariable long hash) {
+        List<HistoryEntry> timeline = historyService.timeline(table, hash);
+        return timeline.isEmpty() ? ResponseEntity.notFound().build() : ResponseEntity.ok(timeline);
+    }
+}
@@ -0,0 +1,26 @@
+package com.mromanak.bungieapireader.model;
+
+import java.util.Arrays;
+
+/**
+ * The kinds of change recorded in a diff table. Each is stored as a boolean column of the same name, with a partial
+ * index over the rows where it is set.
+ */
+public enum DiffChange {
+    ADDED,
+    UPDATED,
+    REMOVED,
+    REDACTED,
+    REVEALED;
+
+    public String getColumn() {
+        return name().toLowerCase();
+    }
+
+    public static DiffChange forColumn(String column) {
+        return Arrays.stream(values()).
+            filter(c -> c.getColumn().equalsIgnoreCase(column)).
+            findFirst().
+            orElseThrow(() -> new IllegalArgumentException("No change type named " + column));
+    }
+}
@@ -0,0 +1,17 @@
+package com.mromanak.bungieapireader.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class DiffPage {
+    private String table;
+    private String change;
+    private List<DiffRow> entries;
+
+    /**
+     * The {@code after} value that fetches the next page, or null if this is the last one.
+     */
+    private Long nextAfter;
+}
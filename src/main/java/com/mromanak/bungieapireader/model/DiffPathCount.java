@@ -0,0 +1,9 @@
+package com.mromanak.bungieapireader.model;
+
+import lombok.Data;
+
+@Data
+public class DiffPathCount {
+    private String path;
+    private Long count;
+}
@@ -3,8 +3,10 @@ package com.mromanak.bungieapireader.model;
 import lombok.Data;
 
 import java.nio.file.Path;
+import java.util.List;
 
 @Data
 public class DiffResponse {
     private Path diffDbPath;
+    private List<String> diffTables;
 }
@@ -0,0 +1,24 @@
+package com.mromanak.bungieapireader.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import lombok.Data;
+
+/**
+ * One row of a diff table. The JSON columns are written out as embedded JSON rather than as strings.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DiffRow {
+    private Long id;
+    private String change;
+
+    @JsonRawValue
+    private String newJson;
+
+    @JsonRawValue
+    private String oldJson;
+
+    @JsonRawValue
+    private String diffJson;
+}
@@ -0,0 +1,26 @@
+package com.mromanak.bungieapireader.model;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class DiffSummary {
+    private String table;
+
+    /**
+     * Entries per change type, including {@code unchanged}.
+     */
+    private Map<String, Long> counts;
+
+    /**
+     * Changed entries per facet (e.g. {@code itemType}), then per facet value, then per change type.
+     */
+    private Map<String, Map<String, Map<String, Long>>> facets;
+
+    /**
+     * The JSON paths touched by the most updated entries, most common first.
+     */
+    private List<DiffPathCount> topPaths;
+}
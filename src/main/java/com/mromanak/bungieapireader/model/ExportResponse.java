@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
 
 import java.nio.file.Path;
+import java.util.List;
 
 @Data
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -12,4 +13,5 @@ public class ExportResponse {
     private Path filePath;
     private Long fileId;
     private Boolean alreadyExported;
+    private List<ExportTableStats> exportedTables;
 }
@@ -0,0 +1,14 @@
+package com.mromanak.bungieapireader.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.Data;
+
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ExportTableStats {
+    private String tableName;
+    private Long rows;
+    private Long newBlobs;
+    private Long elapsedMillis;
+    private Double rowsPerSecond;
+}
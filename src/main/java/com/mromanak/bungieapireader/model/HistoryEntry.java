@@ -0,0 +1,17 @@
+package com.mromanak.bungieapireader.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * A version of a definition in its history, recorded in the first content file where it changed.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HistoryEntry {
+    private Long fileId;
+    private String fileName;
+    private Long downloadedAt;
+    private String change;
+    private String jsonMd5;
+}
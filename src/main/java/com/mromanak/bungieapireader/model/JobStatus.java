@@ -0,0 +1,20 @@
+package com.mromanak.bungieapireader.model;
+
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+public class JobStatus {
+    private String jobId;
+    private String type;
+    private JobState state;
+    private String phase;
+    private Long rowsProcessed;
+    private Long rowsTotal;
+    private Instant submittedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;
+    private Object result;
+}
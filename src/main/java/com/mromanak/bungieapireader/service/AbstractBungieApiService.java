@@ -10,15 +10,15 @@ import java.net.URI;
 public abstract class AbstractBungieApiService {
 
     private static final String X_API_KEY_HEADER_NAME = "X-API-Key";
-    private static final String BUNGIE_HOST = "www.bungie.net";
 
     @Value("${bungie.client.clientSecret}")
     private String apiKey;
 
+    @Value("${bungie.baseUrl:https://www.bungie.net}")
+    private String baseUrl;
+
     protected URI uriFor(String path) {
-        return UriComponentsBuilder.newInstance().
-            scheme("https").
-            host(BUNGIE_HOST).
+        return UriComponentsBuilder.fromHttpUrl(baseUrl).
             path(path).
             build().toUri();
     }
@@ -0,0 +1,127 @@
+package com.mromanak.bungieapireader.service;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Cursor over the definitions of a table that are in two world content DBs but whose JSON isn't byte-for-byte the same,
+ * along with identical ones that are redacted. The old DB is attached to a pooled read-only connection to the new one
+ * so that SQLite compares the JSON, and only the rows that need a structural diff are read into Java. The old DB is
+ * detached again before the connection goes back to the pool.
+ */
+class ChangedDefinitionCursor implements Closeable {
+
+    private static final SQLExceptionTranslator EXCEPTION_TRANSLATOR = new SQLStateSQLExceptionTranslator();
+    private static final String OLD_CONTENT = "old_content";
+
+    private final String query;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+
+    private long hash;
+    private String newJson;
+    private String oldJson;
+
+    /**
+     * @param newDataSource a data source leased from {@link ContentDataSourceRegistry} for the new DB
+     * @param oldDbPath the old DB, which the caller must also hold a lease on while the cursor is open
+     */
+    ChangedDefinitionCursor(DataSource newDataSource, Path oldDbPath, String tableName) {
+        // Identical rows are only redacted if they contain "redacted":true exactly, since world content stores
+        // definitions as compact JSON
+        this.query = "SELECT n.id & 4294967295 AS hash, CAST(n.json AS TEXT) AS new_json, " +
+            "CAST(o.json AS TEXT) AS old_json FROM main." + tableName + " n JOIN " + OLD_CONTENT + "." + tableName +
+            " o ON o.id = n.id WHERE n.json IS NOT o.json OR n.json GLOB '*\"redacted\":true*' ORDER BY n.id";
+        Connection connection = null;
+        PreparedStatement statement = null;
+        String sql = "ATTACH DATABASE ? AS " + OLD_CONTENT;
+        try {
+            connection = newDataSource.getConnection();
+            detach(connection);
+            try (PreparedStatement attach = connection.prepareStatement(sql)) {
+                attach.setString(1, oldDbPath.toAbsolutePath().toString());
+                attach.execute();
+            }
+            sql = query;
+            statement = connection.prepareStatement(query);
+            this.resultSet = statement.executeQuery();
+            this.statement = statement;
+            this.connection = connection;
+        } catch (SQLException e) {
+            JdbcUtils.closeStatement(statement);
+            closeConnection(connection);
+            throw EXCEPTION_TRANSLATOR.translate("Opening changed definition cursor", sql, e);
+        }
+    }
+
+    boolean next() {
+        try {
+            if (!resultSet.next()) {
+                return false;
+            }
+            hash = resultSet.getLong("hash");
+            newJson = resultSet.getString("new_json");
+            oldJson = resultSet.getString("old_json");
+            return true;
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Reading changed definition cursor", query, e);
+        }
+    }
+
+    long getHash() {
+        return hash;
+    }
+
+    String getNewJson() {
+        return newJson;
+    }
+
+    String getOldJson() {
+        return oldJson;
+    }
+
+    @Override
+    public void close() {
+        JdbcUtils.closeResultSet(resultSet);
+        JdbcUtils.closeStatement(statement);
+        closeConnection(connection);
+    }
+
+    private static void closeConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            detach(connection);
+        } catch (SQLException e) {
+            // The next cursor to get this connection detaches the old DB before attaching its own
+        }
+        JdbcUtils.closeConnection(connection);
+    }
+
+    private static void detach(Connection connection) throws SQLException {
+        boolean attached = false;
+        try (Statement databases = connection.createStatement();
+             ResultSet rs = databases.executeQuery("PRAGMA database_list")) {
+            while (rs.next()) {
+                attached |= OLD_CONTENT.equals(rs.getString("name"));
+            }
+        }
+        if (attached) {
+            try (Statement detach = connection.createStatement()) {
+                detach.execute("DETACH DATABASE " + OLD_CONTENT);
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.mromanak.bungieapireader.service;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+import org.sqlite.SQLiteDataSource;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out pooled, read-only connections to world content files. Each file gets its own connection pool, opened on
+ * first use; once more than {@code content.pool.maxFiles} files are open, the least recently used ones that nobody is
+ * reading are closed.
+ * <p>
+ * Callers hold a {@link Lease} for as long as they use a file's {@link DataSource}, which keeps its pool from being
+ * evicted underneath them. Exports and diffs, which may hold a connection per table for minutes, take a {@link #lease}
+ * whose connections are capped {@code content.pool.lookupConnectionsPerFile} short of the pool size. Requests such as
+ * definition lookups and diff queries take a {@link #leaseForLookups} lease, so they always have those connections
+ * left to them.
+ */
+@Component
+public class ContentDataSourceRegistry implements MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentDataSourceRegistry.class);
+
+    private final int maxFiles;
+    private final int maxConnectionsPerFile;
+    private final int bulkConnectionsPerFile;
+    private final long mmapSize;
+    private final int cacheSizeKib;
+    private final Map<Path, PooledFile> pools = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ContentDataSourceRegistry(@Value("${content.pool.maxFiles:4}") int maxFiles,
+        @Value("${content.pool.maxConnectionsPerFile:8}") int maxConnectionsPerFile,
+        @Value("${content.pool.lookupConnectionsPerFile:2}") int lookupConnectionsPerFile,
+        @Value("${content.pool.mmapSize:268435456}") long mmapSize,
+        @Value("${content.pool.cacheSizeKib:16384}") int cacheSizeKib)
+    {
+        if (lookupConnectionsPerFile < 0 || lookupConnectionsPerFile >= maxConnectionsPerFile) {
+            throw new IllegalArgumentException("content.pool.lookupConnectionsPerFile must be at least 0 and less " +
+                "than content.pool.maxConnectionsPerFile (" + maxConnectionsPerFile + ")");
+        }
+        this.maxFiles = maxFiles;
+        this.maxConnectionsPerFile = maxConnectionsPerFile;
+        this.bulkConnectionsPerFile = maxConnectionsPerFile - lookupConnectionsPerFile;
+        this.mmapSize = mmapSize;
+        this.cacheSizeKib = cacheSizeKib;
+    }
+
+    /**
+     * Leases a file for exports, diffs and other long reads, whose connections leave
+     * {@code content.pool.lookupConnectionsPerFile} of the pool free for lookups. Once those readers hold all the rest,
+     * getting another connection waits for one of theirs to be closed.
+     */
+    public Lease lease(Path path) {
+        return new Lease(open(path), true);
+    }
+
+    /**
+     * Leases a file for short lookups, which may use any of its connections.
+     */
+    public Lease leaseForLookups(Path path) {
+        return new Lease(open(path), false);
+    }
+
+    private PooledFile open(Path path) {
+        Path realPath;
+        try {
+            realPath = path.toRealPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open world content file " + path.toAbsolutePath(), e);
+        }
+
+        PooledFile pooledFile;
+        synchronized (pools) {
+            pooledFile = pools.get(realPath);
+            if (pooledFile == null) {
+                misses.incrementAndGet();
+                pooledFile = new PooledFile(realPath, createDataSource(realPath), bulkConnectionsPerFile);
+                pools.put(realPath, pooledFile);
+            } else {
+                hits.incrementAndGet();
+            }
+            pooledFile.leases++;
+            evictIdlePools();
+        }
+        return pooledFile;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("content.datasource.lookups", hits, AtomicLong::get).
+            tag("result", "hit").
+            description("Leases of a world content file whose connection pool was already open").
+            register(registry);
+        FunctionCounter.builder("content.datasource.lookups", misses, AtomicLong::get).
+            tag("result", "miss").
+            description("Leases of a world content file that had to open a new connection pool").
+            register(registry);
+        FunctionCounter.builder("content.datasource.evictions", evictions, AtomicLong::get).
+            description("World content connection pools closed to make room for others").
+            register(registry);
+        Gauge.builder("content.datasource.open", pools, p -> {
+            synchronized (p) {
+                return p.size();
+            }
+        }).
+            description("World content files with an open connection pool").
+            register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (pools) {
+            pools.values().forEach(p -> p.dataSource.close());
+            pools.clear();
+        }
+    }
+
+    private void release(PooledFile pooledFile) {
+        synchronized (pools) {
+            pooledFile.leases--;
+            evictIdlePools();
+        }
+    }
+
+    private void evictIdlePools() {
+        List<PooledFile> evicted = new ArrayList<>();
+        Iterator<PooledFile> iterator = pools.values().iterator();
+        while (pools.size() > maxFiles && iterator.hasNext()) {
+            PooledFile pooledFile = iterator.next();
+            if (pooledFile.leases == 0) {
+                iterator.remove();
+                evicted.add(pooledFile);
+            }
+        }
+        for (PooledFile pooledFile : evicted) {
+            LOGGER.info("Closing connection pool for {}", pooledFile.path);
+            evictions.incrementAndGet();
+            pooledFile.dataSource.close();
+        }
+    }
+
+    private HikariDataSource createDataSource(Path path) {
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("No world content file at " + path);
+        }
+
+        ReadOnlySQLiteDataSource sqliteDataSource = new ReadOnlySQLiteDataSource(mmapSize);
+        sqliteDataSource.setUrl("jdbc:sqlite:" + path);
+        sqliteDataSource.setReadOnly(true);
+        sqliteDataSource.setCacheSize(-cacheSizeKib);
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("content-" + path.getFileName());
+        config.setDataSource(sqliteDataSource);
+        config.setReadOnly(true);
+        config.setMaximumPoolSize(maxConnectionsPerFile);
+        config.setMinimumIdle(0);
+        config.setIdleTimeout(60_000);
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * A lease on a world content file's connection pool. Closing the lease lets the pool be evicted again.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final PooledFile pooledFile;
+        private final boolean bulk;
+        private boolean closed = false;
+
+        private Lease(PooledFile pooledFile, boolean bulk) {
+            this.pooledFile = pooledFile;
+            this.bulk = bulk;
+        }
+
+        public Path getPath() {
+            return pooledFile.path;
+        }
+
+        public DataSource getDataSource() {
+            return bulk ? pooledFile.bulkDataSource : pooledFile.dataSource;
+        }
+
+        public JdbcTemplate getJdbcTemplate() {
+            return bulk ? pooledFile.bulkJdbcTemplate : pooledFile.jdbcTemplate;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(pooledFile);
+            }
+        }
+    }
+
+    private static class PooledFile {
+        private final Path path;
+        private final HikariDataSource dataSource;
+        private final JdbcTemplate jdbcTemplate;
+        private final DataSource bulkDataSource;
+        private final JdbcTemplate bulkJdbcTemplate;
+        private int leases = 0;
+
+        private PooledFile(Path path, HikariDataSource dataSource, int bulkConnections) {
+            this.path = path;
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+            this.bulkDataSource = new CappedDataSource(dataSource, bulkConnections);
+            this.bulkJdbcTemplate = new JdbcTemplate(bulkDataSource);
+        }
+    }
+
+    /**
+     * Limits how many connections may be open through it at once, waiting for one to be closed rather than timing out
+     * in the pool.
+     */
+    private static class CappedDataSource extends DelegatingDataSource {
+
+        private final Semaphore permits;
+
+        private CappedDataSource(DataSource dataSource, int maxConnections) {
+            super(dataSource);
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a world content connection", e);
+            }
+            try {
+                return releasingOnClose(super.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new UnsupportedOperationException("World content connections don't take credentials");
+        }
+
+        private Connection releasingOnClose(Connection connection) {
+            AtomicBoolean released = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                            permits.release();
+                        }
+                    }
+                });
+        }
+    }
+
+    /**
+     * Applies the pragmas sqlite-jdbc has no configuration for to every new connection.
+     */
+    private static class ReadOnlySQLiteDataSource extends SQLiteDataSource {
+
+        private final long mmapSize;
+
+        private ReadOnlySQLiteDataSource(long mmapSize) {
+            this.mmapSize = mmapSize;
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            Connection connection = super.getConnection(username, password);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA mmap_size = " + mmapSize);
+                statement.execute("PRAGMA query_only = true");
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            return connection;
+        }
+    }
+}
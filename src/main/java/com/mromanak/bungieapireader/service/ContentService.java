@@ -3,49 +3,190 @@ package com.mromanak.bungieapireader.service;
 import com.mromanak.bungieapireader.model.BungieResponseWrapper;
 import com.mromanak.bungieapireader.model.DestinyManifest;
 import com.mromanak.bungieapireader.model.ExportResponse;
+import com.mromanak.bungieapireader.model.ExportTableStats;
+import com.mromanak.bungieapireader.service.DefinitionBlobStore.BlobDictionary;
+import com.mromanak.bungieapireader.service.DefinitionBlobStore.EncodedBlob;
+import com.mromanak.bungieapireader.util.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.sqlite.JDBC;
-import org.sqlite.SQLiteDataSource;
 
-import javax.sql.DataSource;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.util.Objects;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class ContentService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentService.class);
+
+    private static final int DIGEST_WINDOW = 4;
+    private static final int DICTIONARY_SAMPLE_SIZE = 2000;
+    private static final Map<String, String> EXPORTED_TABLES = new LinkedHashMap<>();
+
+    private static final Map<String, String> LEGACY_VERSION_VIEWS = new HashMap<>();
+
+    static {
+        EXPORTED_TABLES.put("DestinyInventoryItemDefinition", "InventoryItems");
+        EXPORTED_TABLES.put("DestinyLoreDefinition", "Lore");
+        LEGACY_VERSION_VIEWS.put("InventoryItems", "InventoryItemVersions");
+        LEGACY_VERSION_VIEWS.put("Lore", "LoreVersions");
+    }
+
     @Value("${scratchDirectory}")
     private String scratchDirectory;
 
-    private final ConcurrentMap<Path, DataSourceAndTemplates> dataSourceMap = new ConcurrentHashMap<>();
+    @Value("${export.chunkSize:5000}")
+    private int exportChunkSize;
+
+    @Value("${export.incremental:true}")
+    private boolean incrementalExport;
+
+    @Value("${export.index:true}")
+    private boolean indexExport;
+
+    @Value("${export.history:true}")
+    private boolean historyExport;
+
     private final JdbcTemplate metadataJdbcTemplate;
     private final PublicApiService publicApiService;
+    private final DefinitionDigestService digestService;
+    private final DefinitionBlobStore blobStore;
+    private final ContentDataSourceRegistry contentDataSources;
+    private final DefinitionIndexStore indexStore;
+    private final DefinitionHistoryService historyService;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService digestPool;
+    private final SingleFlight<String, ExportResponse> exports = new SingleFlight<>();
 
     @Autowired
-    public ContentService(JdbcTemplate metadataJdbcTemplate, PublicApiService publicApiService) {
+    public ContentService(JdbcTemplate metadataJdbcTemplate, PublicApiService publicApiService,
+        DefinitionDigestService digestService, DefinitionBlobStore blobStore,
+        ContentDataSourceRegistry contentDataSources, DefinitionIndexStore indexStore,
+        DefinitionHistoryService historyService, MeterRegistry meterRegistry,
+        @Value("${export.workers:0}") int exportWorkers)
+    {
         this.metadataJdbcTemplate = metadataJdbcTemplate;
         this.publicApiService = publicApiService;
+        this.digestService = digestService;
+        this.blobStore = blobStore;
+        this.contentDataSources = contentDataSources;
+        this.indexStore = indexStore;
+        this.historyService = historyService;
+        this.meterRegistry = meterRegistry;
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("export-digest-");
+        threadFactory.setDaemon(true);
+        int poolSize = exportWorkers > 0 ? exportWorkers : Runtime.getRuntime().availableProcessors();
+        this.digestPool = Executors.newFixedThreadPool(poolSize, threadFactory);
+    }
+
+    /**
+     * Moves JSON stored inline in the rows of older metadata DBs into the blob store, then rebuilds each exported table
+     * as (hashId, fileId, jsonMd5) version rows and drops the views that resolved its {@code jsonFileId} references.
+     */
+    @PostConstruct
+    public void migrateInlineJson() {
+        for (String table : EXPORTED_TABLES.values()) {
+            List<String> columns = metadataJdbcTemplate.query("PRAGMA table_info(" + table + ");",
+                (rs, i) -> rs.getString("name"));
+            if (!columns.contains("json")) {
+                continue;
+            }
+
+            boolean hasJson = metadataJdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + table + " WHERE json IS NOT NULL);", Boolean.class);
+            BlobDictionary dictionary = !hasJson ? null : blobStore.currentDictionary(() ->
+                metadataJdbcTemplate.queryForList(
+                    "SELECT json FROM " + table + " WHERE json IS NOT NULL ORDER BY random() LIMIT ?;",
+                    new Object[]{DICTIONARY_SAMPLE_SIZE}, String.class));
+            String blobUpdate = "INSERT OR IGNORE INTO DefinitionBlobs (jsonMd5, dictionaryId, rawLength, data) VALUES (?, ?, ?, ?);";
+            AtomicLong newBlobs = new AtomicLong();
+            metadataJdbcTemplate.execute((ConnectionCallback<Void>) (Connection connection) -> {
+                connection.setAutoCommit(false);
+                try (Statement statement = connection.createStatement();
+                     PreparedStatement blobPs = connection.prepareStatement(blobUpdate)) {
+                    try (ResultSet rs = statement.executeQuery(
+                        "SELECT jsonMd5, json FROM " + table + " WHERE json IS NOT NULL GROUP BY jsonMd5;")) {
+                        while (dictionary != null && rs.next()) {
+                            EncodedBlob blob = blobStore.encode(rs.getString("json"), dictionary);
+                            blobPs.setString(1, rs.getString("jsonMd5"));
+                            blobPs.setLong(2, blob.getDictionaryId());
+                            blobPs.setInt(3, blob.getRawLength());
+                            blobPs.setBytes(4, blob.getData());
+                            newBlobs.addAndGet(Math.max(blobPs.executeUpdate(), 0));
+                        }
+                    }
+                    statement.execute("DROP VIEW IF EXISTS " + LEGACY_VERSION_VIEWS.get(table) + ";");
+                    statement.execute("CREATE TABLE " + table + "_versions (hashId INTEGER, fileId INTEGER, " +
+                        "jsonMd5 TEXT, PRIMARY KEY (fileId, hashId));");
+                    statement.execute("INSERT INTO " + table + "_versions (hashId, fileId, jsonMd5) " +
+                        "SELECT hashId, fileId, jsonMd5 FROM " + table + ";");
+                    statement.execute("DROP TABLE " + table + ";");
+                    statement.execute("ALTER TABLE " + table + "_versions RENAME TO " + table + ";");
+                    statement.execute("CREATE INDEX " + table + "_hashId ON " + table + " (hashId, fileId);");
+                    connection.commit();
+                } catch (RuntimeException | SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+                return null;
+            });
+            LOGGER.info("Moved the inline JSON of {} into {} new blobs", table, newBlobs.get());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        digestPool.shutdownNow();
     }
 
     public ExportResponse exportContent() throws IOException {
+        return exportContent(JobProgress.NONE);
+    }
+
+    /**
+     * Downloads and exports the current world content file. Concurrent exports of the same file are run once, and
+     * share its result.
+     */
+    public ExportResponse exportContent(JobProgress progress) throws IOException {
         String fileName = Optional.of(publicApiService.getManifest()).
             filter(r -> r.getStatusCode().is2xxSuccessful()).
             map(ResponseEntity::getBody).
@@ -53,7 +194,42 @@ public class ContentService {
             map(DestinyManifest::getMobileWorldContentPaths).
             map(m -> m.get("en")).
             orElseThrow(() -> new IllegalStateException("No EN World Content file defined in manifest"));
-        return download(fileName);
+        return exports.execute(fileName, () -> export(fileName, progress),
+            () -> progress.phase("waiting for another export of " + fileName, -1));
+    }
+
+    private ExportResponse export(String fileName, JobProgress progress) throws IOException {
+        progress.phase("downloading", -1);
+        ExportResponse exportResponse = download(fileName);
+        List<ExportTableStats> exportedTables = new ArrayList<>();
+        for (Map.Entry<String, String> exportedTable : EXPORTED_TABLES.entrySet()) {
+            exportRows(exportResponse, exportedTable.getKey(), exportedTable.getValue(), progress).
+                ifPresent(exportedTables::add);
+        }
+        exportResponse.setExportedTables(exportedTables);
+        progress.phase("recording digests", -1);
+        phaseTimer("digests", exportResponse.getFileId()).
+            record(() -> digestService.recordDigests(exportResponse.getFileId(), exportResponse.getFilePath()));
+        if (indexExport && !indexStore.exists(exportResponse.getFileId())) {
+            progress.phase("indexing", -1);
+            long startNanos = System.nanoTime();
+            indexStore.build(exportResponse.getFileId(), exportResponse.getFilePath());
+            phaseTimer("index", exportResponse.getFileId()).
+                record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+        if (historyExport) {
+            phaseTimer("history", exportResponse.getFileId()).
+                record(() -> historyService.record(exportResponse.getFileId(), exportResponse.getFilePath(), progress));
+        }
+        return exportResponse;
+    }
+
+    private Timer phaseTimer(String phase, Long fileId) {
+        return Timer.builder("content.export.phase").
+            tag("phase", phase).
+            tag("fileId", String.valueOf(fileId)).
+            description("Time spent on each step of an export that follows the per-table exports").
+            register(meterRegistry);
     }
 
     private ExportResponse download(String fileName) throws IOException {
@@ -64,7 +240,7 @@ public class ContentService {
             return metadataJdbcTemplate
                 .queryForObject(query, new Object[]{fileName}, exportRowMapper(fileName, filePath, true));
         } catch (IncorrectResultSizeDataAccessException e) {
-            String update = "INSERT INTO ContentFiles (fileName, downloadedAt) VALUES (?,  strftime('%s','now'));";
+            String update = "INSERT OR IGNORE INTO ContentFiles (fileName, downloadedAt) VALUES (?,  strftime('%s','now'));";
             metadataJdbcTemplate.update(update, fileName);
 
             String query = "SELECT fileId FROM ContentFiles WHERE fileName = ?;";
@@ -72,6 +248,29 @@ public class ContentService {
         }
     }
 
+    public Optional<String> exportedJson(String table, Long fileId, Long hashId) {
+        return exportedDigest(table, fileId, hashId).flatMap(blobStore::readJson);
+    }
+
+    /**
+     * Looks up the UTF-8 JSON of a definition exported from {@code sourceTable} (e.g.
+     * {@code DestinyInventoryItemDefinition}), or returns an empty {@code Optional} if that table isn't exported.
+     */
+    public Optional<byte[]> exportedDefinition(String sourceTable, Long fileId, Long hashId) {
+        String table = EXPORTED_TABLES.get(sourceTable);
+        return table == null ? Optional.empty() : exportedDigest(table, fileId, hashId).flatMap(blobStore::readBytes);
+    }
+
+    private Optional<String> exportedDigest(String table, Long fileId, Long hashId) {
+        if (!EXPORTED_TABLES.containsValue(table)) {
+            throw new IllegalArgumentException("No exported table named " + table);
+        }
+
+        String query = "SELECT jsonMd5 FROM " + table + " WHERE fileId = ? AND hashId = ?;";
+        List<String> digests = metadataJdbcTemplate.queryForList(query, new Object[]{fileId, hashId}, String.class);
+        return digests.stream().findFirst();
+    }
+
     private RowMapper<ExportResponse> exportRowMapper(String fileName, Path filePath, Boolean alreadyExported) {
         return (ResultSet rs, int i) -> {
             ExportResponse exportResponse = new ExportResponse();
@@ -83,69 +282,249 @@ public class ContentService {
         };
     }
 
-    private Long exportInventoryItemRows(ExportResponse exportResponse) {
-        JdbcTemplate contentFileJdbcTemplate = jdbcTemplateFor(exportResponse.getFilePath());
-        String query = "SELECT json_extract(json ,'$.hash') AS hashId, json FROM DestinyInventoryItemDefinition;";
-        String update = "INSERT INTO InventoryItems (hashId, fileId, jsonMd5, json) VALUES (?, ?, ?, ?);";
-        RowCallbackHandler rch = exportRowCallbackHandler(exportResponse, update);
-        contentFileJdbcTemplate.query(query, rch);
-        return countInventoryItemRows(exportResponse.getFileId());
-    }
+    private Optional<ExportTableStats> exportRows(ExportResponse exportResponse, String sourceTable,
+        String targetTable, JobProgress progress)
+    {
+        Long fileId = exportResponse.getFileId();
+        if (isExported(targetTable, fileId)) {
+            return Optional.empty();
+        }
+        // Rows committed by an export of this file that never finished, e.g. because the JVM died part way through
+        metadataJdbcTemplate.update("DELETE FROM " + targetTable + " WHERE fileId = ?;", fileId);
+
+        long startNanos = System.nanoTime();
+        Map<Long, String> previousDigests = incrementalExport ? previousDigests(targetTable, fileId) :
+            Collections.emptyMap();
+        AtomicLong newBlobs = new AtomicLong();
+        try (ContentDataSourceRegistry.Lease lease = contentDataSources.lease(exportResponse.getFilePath())) {
+            JdbcTemplate contentFileJdbcTemplate = lease.getJdbcTemplate();
+            progress.phase("exporting " + targetTable,
+                contentFileJdbcTemplate.queryForObject("SELECT count(*) FROM " + sourceTable + ";", Long.class));
+            BlobDictionary dictionary = blobStore.currentDictionary(
+                () -> sampleJson(contentFileJdbcTemplate, sourceTable));
+            String query = "SELECT json_extract(json ,'$.hash') AS hashId, json FROM " + sourceTable + ";";
+            String update = "INSERT INTO " + targetTable + " (hashId, fileId, jsonMd5) VALUES (?, ?, ?);";
+            String blobUpdate = "INSERT OR IGNORE INTO DefinitionBlobs (jsonMd5, dictionaryId, rawLength, data) VALUES (?, ?, ?, ?);";
+            try {
+                metadataJdbcTemplate.execute((ConnectionCallback<Void>) (Connection connection) -> {
+                    connection.setAutoCommit(false);
+                    try (PreparedStatement ps = connection.prepareStatement(update);
+                         PreparedStatement blobPs = connection.prepareStatement(blobUpdate)) {
+                        ExportRowCallbackHandler rch = new ExportRowCallbackHandler(connection, ps, blobPs,
+                            targetTable, fileId, previousDigests, dictionary, newBlobs, progress);
+                        contentFileJdbcTemplate.query(query, rch);
+                        rch.finish();
+                        markExported(connection, targetTable, fileId);
+                        connection.commit();
+                    } catch (RuntimeException | SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                metadataJdbcTemplate.update("DELETE FROM " + targetTable + " WHERE fileId = ?;", fileId);
+                throw e;
+            }
+        }
 
-    private Long exportLoreRows(ExportResponse exportResponse) {
-        JdbcTemplate contentFileJdbcTemplate = jdbcTemplateFor(exportResponse.getFilePath());
-        String query = "SELECT json_extract(json ,'$.hash') AS hashId, json FROM DestinyLoreDefinition;";
-        String update = "INSERT INTO Lore (hashId, fileId, jsonMd5, json) VALUES (?, ?, ?, ?);";
-        RowCallbackHandler rch = exportRowCallbackHandler(exportResponse, update);
-        contentFileJdbcTemplate.query(query, rch);
-        return countLoreRows(exportResponse.getFileId());
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Timer.builder("content.export.table").
+            tag("table", targetTable).
+            tag("fileId", String.valueOf(fileId)).
+            description("Time spent exporting a table of a world content file").
+            register(meterRegistry).
+            record(elapsedNanos, TimeUnit.NANOSECONDS);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        Long rows = countRows(targetTable, fileId);
+        ExportTableStats stats = new ExportTableStats();
+        stats.setTableName(targetTable);
+        stats.setRows(rows);
+        stats.setNewBlobs(newBlobs.get());
+        stats.setElapsedMillis(elapsedMillis);
+        stats.setRowsPerSecond(elapsedMillis == 0 ? null : rows * 1000.0 / elapsedMillis);
+        return Optional.of(stats);
     }
 
-    private RowCallbackHandler exportRowCallbackHandler(ExportResponse exportResponse, String update) {
-        return (ResultSet rs) -> metadataJdbcTemplate.update(update, (PreparedStatement ps) -> {
-            ps.setLong(1, rs.getLong("hashId"));
-            ps.setLong(2, exportResponse.getFileId());
-            String jsonString = rs.getString("json");
-            ps.setString(3, DigestUtils.md5Hex(jsonString));
-            ps.setString(4, jsonString);
+    /**
+     * Returns the digest of every row in the most recent complete export of a table prior to {@code fileId}.
+     */
+    private Map<Long, String> previousDigests(String table, Long fileId) {
+        Long previousFileId = metadataJdbcTemplate.queryForObject(
+            "SELECT max(fileId) FROM ExportedTables WHERE tableName = ? AND fileId < ?;", new Object[]{table, fileId},
+            Long.class);
+        if (previousFileId == null) {
+            return Collections.emptyMap();
+        }
+
+        Map<Long, String> previousDigests = new HashMap<>();
+        String query = "SELECT hashId, jsonMd5 FROM " + table + " WHERE fileId = ?;";
+        metadataJdbcTemplate.query(query, new Object[]{previousFileId}, (ResultSet rs) -> {
+            previousDigests.put(rs.getLong("hashId"), rs.getString("jsonMd5"));
         });
+        return previousDigests;
     }
 
-    private Long countInventoryItemRows(Long fileId) {
-        return metadataJdbcTemplate
-            .queryForObject("SELECT count(*) FROM InventoryItems WHERE fileId = ?;", new Object[]{fileId}, Long.class);
+    private List<String> sampleJson(JdbcTemplate contentFileJdbcTemplate, String table) {
+        String query = "SELECT json FROM " + table + " ORDER BY random() LIMIT ?;";
+        return contentFileJdbcTemplate.queryForList(query, new Object[]{DICTIONARY_SAMPLE_SIZE}, String.class);
     }
 
-    private Long countLoreRows(Long fileId) {
-        return metadataJdbcTemplate
-            .queryForObject("SELECT count(*) FROM Lore WHERE fileId = ?;", new Object[]{fileId}, Long.class);
+    /**
+     * Returns whether every row of a table has been exported from a file. Rows are committed a chunk at a time, so rows
+     * alone don't mean the export finished.
+     */
+    private boolean isExported(String table, Long fileId) {
+        String query = "SELECT EXISTS (SELECT 1 FROM ExportedTables WHERE fileId = ? AND tableName = ?);";
+        return metadataJdbcTemplate.queryForObject(query, new Object[]{fileId, table}, Boolean.class);
     }
 
-    private DataSourceAndTemplates dataSourceAndTemplatesFor(Path path) {
-        Objects.requireNonNull(path, "Path argument must be non-null");
-        path = path.toAbsolutePath();
+    private static void markExported(Connection connection, String table, Long fileId) throws SQLException {
+        String update = "INSERT INTO ExportedTables (fileId, tableName, exportedAt) VALUES (?, ?, strftime('%s','now'));";
+        try (PreparedStatement ps = connection.prepareStatement(update)) {
+            ps.setLong(1, fileId);
+            ps.setString(2, table);
+            ps.executeUpdate();
+        }
+    }
 
-        String url = "jdbc:sqlite:" + path;
-        DataSource dataSource = DataSourceBuilder.create().
-            url(url).
-            driverClassName(JDBC.class.getCanonicalName()).
-            type(SQLiteDataSource.class).
-            build();
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-        NamedParameterJdbcTemplate namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
-        return new DataSourceAndTemplates(dataSource, jdbcTemplate, namedParameterJdbcTemplate);
+    private Long countRows(String table, Long fileId) {
+        return metadataJdbcTemplate
+            .queryForObject("SELECT count(*) FROM " + table + " WHERE fileId = ?;", new Object[]{fileId}, Long.class);
     }
 
-    private JdbcTemplate jdbcTemplateFor(Path path) {
-        return dataSourceMap.computeIfAbsent(path, this::dataSourceAndTemplatesFor).getJdbcTemplate();
+    /**
+     * Streams rows from a content file in chunks, digests each chunk on the digest pool, and inserts finished chunks in
+     * order, committing once per chunk. At most {@code DIGEST_WINDOW} chunks are held in memory at a time.
+     * <p>
+     * Each row's JSON is compressed into the blob store unless its digest matches the previous export, in which case
+     * the blob is already there and only the version row is written.
+     * <p>
+     * The time each chunk spends being read, digested and inserted is recorded separately, so a slow export shows which
+     * of the three it is waiting on.
+     */
+    private class ExportRowCallbackHandler implements RowCallbackHandler {
+
+        private final Connection connection;
+        private final PreparedStatement ps;
+        private final PreparedStatement blobPs;
+        private final Long fileId;
+        private final Map<Long, String> previousDigests;
+        private final BlobDictionary dictionary;
+        private final AtomicLong newBlobs;
+        private final JobProgress progress;
+        private final Timer readTimer;
+        private final Timer digestTimer;
+        private final Timer insertTimer;
+        private final Counter rowCounter;
+        private final Deque<CompletableFuture<List<ExportRow>>> pendingChunks = new ArrayDeque<>();
+        private List<ExportRow> chunk = new ArrayList<>(exportChunkSize);
+        private long chunkStartNanos = System.nanoTime();
+
+        private ExportRowCallbackHandler(Connection connection, PreparedStatement ps, PreparedStatement blobPs,
+            String table, Long fileId, Map<Long, String> previousDigests, BlobDictionary dictionary,
+            AtomicLong newBlobs, JobProgress progress)
+        {
+            this.connection = connection;
+            this.ps = ps;
+            this.blobPs = blobPs;
+            this.fileId = fileId;
+            this.previousDigests = previousDigests;
+            this.dictionary = dictionary;
+            this.newBlobs = newBlobs;
+            this.progress = progress;
+            this.readTimer = chunkTimer("read", table);
+            this.digestTimer = chunkTimer("digest", table);
+            this.insertTimer = chunkTimer("insert", table);
+            this.rowCounter = Counter.builder("content.export.rows").
+                tag("table", table).
+                tag("fileId", String.valueOf(fileId)).
+                description("Rows exported from world content files").
+                register(meterRegistry);
+        }
+
+        private Timer chunkTimer(String step, String table) {
+            return Timer.builder("content.export.chunk").
+                tag("step", step).
+                tag("table", table).
+                description("Time spent reading, digesting or inserting a chunk of exported rows").
+                register(meterRegistry);
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            chunk.add(new ExportRow(rs.getLong("hashId"), rs.getString("json"), null, null));
+            if (chunk.size() >= exportChunkSize) {
+                submitChunk();
+                while (pendingChunks.size() > DIGEST_WINDOW) {
+                    insertChunk(pendingChunks.poll().join());
+                }
+                chunkStartNanos = System.nanoTime();
+            }
+        }
+
+        private void finish() throws SQLException {
+            submitChunk();
+            while (!pendingChunks.isEmpty()) {
+                insertChunk(pendingChunks.poll().join());
+            }
+        }
+
+        private void submitChunk() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            readTimer.record(System.nanoTime() - chunkStartNanos, TimeUnit.NANOSECONDS);
+            List<ExportRow> rows = chunk;
+            pendingChunks.add(CompletableFuture.supplyAsync(() -> digestTimer.record(() -> {
+                for (ExportRow row : rows) {
+                    row.setJsonMd5(DigestUtils.md5Hex(row.getJson()));
+                    if (!row.getJsonMd5().equals(previousDigests.get(row.getHashId()))) {
+                        row.setBlob(blobStore.encode(row.getJson(), dictionary));
+                    }
+                    row.setJson(null);
+                }
+                return rows;
+            }), digestPool));
+            chunk = new ArrayList<>(exportChunkSize);
+        }
+
+        private void insertChunk(List<ExportRow> rows) throws SQLException {
+            long startNanos = System.nanoTime();
+            for (ExportRow row : rows) {
+                ps.setLong(1, row.getHashId());
+                ps.setLong(2, fileId);
+                ps.setString(3, row.getJsonMd5());
+                ps.addBatch();
+
+                EncodedBlob blob = row.getBlob();
+                if (blob != null) {
+                    blobPs.setString(1, row.getJsonMd5());
+                    blobPs.setLong(2, blob.getDictionaryId());
+                    blobPs.setInt(3, blob.getRawLength());
+                    blobPs.setBytes(4, blob.getData());
+                    blobPs.addBatch();
+                }
+            }
+            ps.executeBatch();
+            for (int count : blobPs.executeBatch()) {
+                newBlobs.addAndGet(Math.max(count, 0));
+            }
+            connection.commit();
+            insertTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            rowCounter.increment(rows.size());
+            progress.rowsProcessed(rows.size());
+        }
     }
 
     @Data
     @AllArgsConstructor
-    private class DataSourceAndTemplates {
-        private final DataSource dataSource;
-        private final JdbcTemplate jdbcTemplate;
-        private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private static class ExportRow {
+        private Long hashId;
+        private String json;
+        private String jsonMd5;
+        private EncodedBlob blob;
     }
 }
-
@@ -0,0 +1,22 @@
+package com.mromanak.bungieapireader.service;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+class DbDiffEntry {
+    private String tableName;
+    private Long id;
+    private String newJson;
+    private String oldJson;
+    private String diffJson;
+    private boolean isAdded = false;
+    private boolean isUpdated = false;
+    private boolean isDeleted = false;
+    private boolean isRedacted = false;
+    private boolean isRevealed = false;
+    private Map<String, String> facets;
+    private List<String> changedPaths;
+}
@@ -1,37 +1,164 @@
 package com.mromanak.bungieapireader.service;
 
+import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fge.jsonpatch.JsonPatch;
+import com.github.fge.jsonpatch.JsonPatchException;
 import com.github.fge.jsonpatch.diff.JsonDiff;
-import lombok.Data;
-import org.springframework.boot.jdbc.DataSourceBuilder;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
-import org.springframework.jdbc.core.RowCallbackHandler;
+import com.mromanak.bungieapireader.model.DiffChange;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.sqlite.JDBC;
-import org.sqlite.SQLiteDataSource;
 
+import javax.annotation.PreDestroy;
 import javax.sql.DataSource;
+
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Service
 public class DbDiffService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DbDiffService.class);
+    private static final String INVENTORY_ITEM_TABLE = "DestinyInventoryItemDefinition";
+    private static final String ATTACH_MODE = "attach";
+    private static final String MERGE_MODE = "merge";
+    private static final String REDACTED_TRUE = "\"redacted\":true";
+    private static final int PROGRESS_INTERVAL = 1000;
+    private static final Pattern NUMERIC_PATH_SEGMENT = Pattern.compile("(?<=/)\\d+(?=/|$)");
+    private static final Map<String, JsonPointer> FACETS = new LinkedHashMap<>();
+    private static final Map<String, String> FACET_PATHS = new LinkedHashMap<>();
+
+    static {
+        FACETS.put("itemType", JsonPointer.compile("/itemType"));
+        FACETS.put("tierType", JsonPointer.compile("/inventory/tierType"));
+        FACETS.put("bucketTypeHash", JsonPointer.compile("/inventory/bucketTypeHash"));
+        FACETS.forEach((facet, pointer) -> FACET_PATHS.put(facet, "$" + pointer.toString().replace('/', '.')));
+    }
+
     private final ObjectMapper objectMapper;
+    private final DefinitionDigestService digestService;
+    private final ContentDataSourceRegistry contentDataSources;
+    private final MeterRegistry meterRegistry;
+    private final Set<DiffPipeline> runningPipelines = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workerPool;
+    private final ExecutorService tablePool;
+    private final int queueDepth;
+    private final int writerChunkSize;
+    private final int summaryTopPaths;
+    private final boolean attachMode;
+    private final JsonDiffStrategy diffStrategy;
+    private final boolean verifyDiffs;
+    private final Counter verifyFailures;
+
+    public DbDiffService(ObjectMapper objectMapper, DefinitionDigestService digestService,
+        ContentDataSourceRegistry contentDataSources, MeterRegistry meterRegistry,
+        @Value("${diff.workers:0}") int workers, @Value("${diff.tableConcurrency:4}") int tableConcurrency,
+        @Value("${diff.queueDepth:1024}") int queueDepth, @Value("${diff.writer.chunkSize:5000}") int writerChunkSize,
+        @Value("${diff.summary.topPaths:100}") int summaryTopPaths, @Value("${diff.engine:keyed}") String engine,
+        @Value("${diff.verify:false}") boolean verifyDiffs, @Value("${diff.mode:attach}") String mode)
+    {
+        if (!ATTACH_MODE.equals(mode) && !MERGE_MODE.equals(mode)) {
+            throw new IllegalArgumentException("Unknown diff mode " + mode + "; expected " + ATTACH_MODE + " or " +
+                MERGE_MODE);
+        }
 
-    public DbDiffService(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
+        this.digestService = digestService;
+        this.contentDataSources = contentDataSources;
+        this.meterRegistry = meterRegistry;
+        this.queueDepth = queueDepth;
+        this.writerChunkSize = writerChunkSize;
+        this.summaryTopPaths = summaryTopPaths;
+        this.attachMode = ATTACH_MODE.equals(mode);
+        this.diffStrategy = JsonDiffStrategy.named(engine);
+        this.verifyDiffs = verifyDiffs;
+        this.verifyFailures = Counter.builder("diff.verify.failures").
+            tag("engine", engine).
+            description("Diffs whose patch didn't reproduce the new definition and were recomputed with json-patch").
+            register(meterRegistry);
+
+        CustomizableThreadFactory workerThreadFactory = new CustomizableThreadFactory("diff-worker-");
+        workerThreadFactory.setDaemon(true);
+        int poolSize = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.workerPool = Executors.newFixedThreadPool(poolSize, workerThreadFactory);
+
+        CustomizableThreadFactory tableThreadFactory = new CustomizableThreadFactory("diff-table-");
+        tableThreadFactory.setDaemon(true);
+        this.tablePool = Executors.newFixedThreadPool(Math.max(1, tableConcurrency), tableThreadFactory);
+
+        Gauge.builder("diff.queue.entries", runningPipelines,
+            p -> p.stream().mapToInt(DiffPipeline::inFlight).sum()).
+            tag("state", "in-flight").
+            description("Diff entries queued, being computed or waiting to be written, across running diffs").
+            register(meterRegistry);
+        Gauge.builder("diff.queue.entries", runningPipelines,
+            p -> p.stream().mapToInt(DiffPipeline::awaitingWrite).sum()).
+            tag("state", "awaiting-write").
+            description("Computed diff entries waiting for the writer, across running diffs").
+            register(meterRegistry);
     }
 
-    public void createInventoryItemDiffDb(Path newDbPath, Path oldDbPath, Path diffDbPath) throws IOException {
+    @PreDestroy
+    public void shutdown() {
+        tablePool.shutdownNow();
+        workerPool.shutdownNow();
+    }
+
+    public List<String> createDiffDb(Path newDbPath, Path oldDbPath, Path diffDbPath) throws IOException {
+        return createDiffDb(newDbPath, oldDbPath, diffDbPath, JobProgress.NONE);
+    }
+
+    public List<String> createDiffDb(Path newDbPath, Path oldDbPath, Path diffDbPath, JobProgress progress)
+        throws IOException
+    {
+        return createDiffDb(newDbPath, oldDbPath, diffDbPath, tableName -> true, progress);
+    }
+
+    public List<String> createInventoryItemDiffDb(Path newDbPath, Path oldDbPath, Path diffDbPath) throws IOException {
+        return createInventoryItemDiffDb(newDbPath, oldDbPath, diffDbPath, JobProgress.NONE);
+    }
+
+    public List<String> createInventoryItemDiffDb(Path newDbPath, Path oldDbPath, Path diffDbPath,
+        JobProgress progress) throws IOException
+    {
+        return createDiffDb(newDbPath, oldDbPath, diffDbPath, INVENTORY_ITEM_TABLE::equals, progress);
+    }
+
+    private List<String> createDiffDb(Path newDbPath, Path oldDbPath, Path diffDbPath, Predicate<String> tableFilter,
+        JobProgress progress) throws IOException
+    {
         Objects.requireNonNull(newDbPath, "New DB path must be non-null");
         Objects.requireNonNull(oldDbPath, "Old DB path must be non-null");
         Objects.requireNonNull(diffDbPath, "Diff DB path must be non-null");
@@ -39,108 +166,285 @@ public class DbDiffService {
             throw new IllegalArgumentException("A file already exists at the diff DB path");
         }
 
-        Map<Long, String> newDbContent = readInventoryItemContent(newDbPath);
-        Map<Long, String> oldDbContent = readInventoryItemContent(oldDbPath);
-        List<DbDiffEntry> diffEntries = new ArrayList<>(newDbContent.size());
+        progress.phase("preparing", -1);
+        checkExists(newDbPath);
+        checkExists(oldDbPath);
+        Path newRealPath = newDbPath.toRealPath();
+        Path oldRealPath = oldDbPath.toRealPath();
+        try (ContentDataSourceRegistry.Lease newLease = contentDataSources.lease(newRealPath);
+             ContentDataSourceRegistry.Lease oldLease = contentDataSources.lease(oldRealPath)) {
+            List<String> tableNames;
+            try {
+                tableNames = diffTables(newLease, oldLease, diffDbPath, tableFilter, progress);
+            } catch (RuntimeException | IOException e) {
+                deleteDiffDb(diffDbPath, e);
+                throw e;
+            }
+            return tableNames.stream().map(WorldContentSchema::diffTableName).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Deletes a diff DB that failed or was cancelled part way through, so that the same path can be used again. The DB
+     * is written without a journal, so what is on disk can't be trusted or resumed.
+     */
+    private static void deleteDiffDb(Path diffDbPath, Exception cause) {
+        try {
+            Files.deleteIfExists(diffDbPath);
+            Files.deleteIfExists(diffDbPath.resolveSibling(diffDbPath.getFileName() + "-journal"));
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private List<String> diffTables(ContentDataSourceRegistry.Lease newLease, ContentDataSourceRegistry.Lease oldLease,
+        Path diffDbPath, Predicate<String> tableFilter, JobProgress progress) throws IOException
+    {
+        Long newFileId = digestService.fileIdFor(newLease.getPath()).orElse(null);
+        Long oldFileId = digestService.fileIdFor(oldLease.getPath()).orElse(null);
+
+        Map<String, Long> newTables = WorldContentSchema.definitionTables(newLease);
+        Map<String, Long> oldTables = WorldContentSchema.definitionTables(oldLease);
+        List<String> tableNames = Stream.concat(newTables.keySet().stream(), oldTables.keySet().stream()).
+            distinct().
+            filter(tableFilter).
+            sorted(Comparator.comparingLong(
+                (String t) -> Math.max(newTables.getOrDefault(t, 0L), oldTables.getOrDefault(t, 0L))).reversed()).
+            collect(Collectors.toList());
+        long rowsTotal = tableNames.stream().
+            mapToLong(t -> Math.max(newTables.getOrDefault(t, 0L), oldTables.getOrDefault(t, 0L))).
+            sum();
 
-        for (Map.Entry<Long, String> newEntry : newDbContent.entrySet()) {
-            Long id = newEntry.getKey();
-            String newJson = newEntry.getValue();
-            String oldJson = oldDbContent.remove(id);
-            diffEntries.add(createDiffEntry(id, newJson, oldJson));
+        progress.phase("diffing", rowsTotal);
+        Timer writeTimer = Timer.builder("diff.write").
+            description("Time spent inserting and committing a chunk of diff entries").
+            register(meterRegistry);
+        try (DiffDbWriter writer = new DiffDbWriter(diffDbPath, writerChunkSize, summaryTopPaths, writeTimer)) {
+            tableNames.forEach(t -> writer.createTable(WorldContentSchema.diffTableName(t)));
+            if (attachMode) {
+                long classifyStartNanos = System.nanoTime();
+                writer.attach(newLease.getPath(), oldLease.getPath());
+                for (String tableName : tableNames) {
+                    Map<String, Long> copied = writer.copyClassified(WorldContentSchema.diffTableName(tableName),
+                        tableName, newTables.containsKey(tableName), oldTables.containsKey(tableName), FACET_PATHS);
+                    TableMeters meters = new TableMeters(tableName);
+                    copied.forEach(meters::count);
+                    progress.rowsProcessed(copied.values().stream().mapToLong(Long::longValue).sum());
+                }
+                writer.detach();
+                phaseTimer("classifying").record(System.nanoTime() - classifyStartNanos, TimeUnit.NANOSECONDS);
+            }
+
+            long diffStartNanos = System.nanoTime();
+            try (DiffPipeline pipeline = new DiffPipeline(writer, workerPool, queueDepth, writerChunkSize)) {
+                runningPipelines.add(pipeline);
+                try {
+                    List<Future<Void>> tableFutures = new ArrayList<>(tableNames.size());
+                    for (String tableName : tableNames) {
+                        boolean inNew = newTables.containsKey(tableName);
+                        boolean inOld = oldTables.containsKey(tableName);
+                        if (attachMode) {
+                            if (inNew && inOld) {
+                                tableFutures.add(tablePool.submit(
+                                    () -> diffChangedRows(pipeline, tableName, newLease.getDataSource(),
+                                        oldLease.getPath(), newFileId, progress)));
+                            }
+                            continue;
+                        }
+                        DataSource newTableDataSource = inNew ? newLease.getDataSource() : null;
+                        DataSource oldTableDataSource = inOld ? oldLease.getDataSource() : null;
+                        long[] changedHashes = changedHashes(newFileId, oldFileId, tableName);
+                        tableFutures.add(tablePool.submit(
+                            () -> diffTable(pipeline, tableName, newTableDataSource, oldTableDataSource,
+                                changedHashes, newFileId, progress)));
+                    }
+                    awaitAll(tableFutures);
+                    pipeline.finish();
+                } finally {
+                    runningPipelines.remove(pipeline);
+                }
+            }
+            phaseTimer("diffing").record(System.nanoTime() - diffStartNanos, TimeUnit.NANOSECONDS);
+
+            progress.phase("indexing", -1);
+            phaseTimer("indexing").record(writer::complete);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating diff DB " + diffDbPath, e);
         }
+        return tableNames;
+    }
 
-        for (Map.Entry<Long, String> oldEntry : oldDbContent.entrySet()) {
-            Long id = oldEntry.getKey();
-            String oldJson = oldEntry.getValue();
-            diffEntries.add(createDiffEntry(id, null, oldJson));
+    private Timer phaseTimer(String phase) {
+        return Timer.builder("diff.phase").
+            tag("phase", phase).
+            description("Time spent classifying rows in SQLite, computing diff entries, or indexing and summarizing " +
+                "a diff DB once they are in").
+            register(meterRegistry);
+    }
+
+    private Void diffTable(DiffPipeline pipeline, String tableName, DataSource newDataSource,
+        DataSource oldDataSource, long[] changedHashes, Long newFileId, JobProgress progress)
+        throws InterruptedException
+    {
+        String diffTableName = WorldContentSchema.diffTableName(tableName);
+        TableMeters meters = new TableMeters(tableName);
+        long startNanos = System.nanoTime();
+        try (DefinitionCursor newCursor = newDataSource == null ? null : new DefinitionCursor(newDataSource, tableName);
+             DefinitionCursor oldCursor = oldDataSource == null ? null : new DefinitionCursor(oldDataSource, tableName)) {
+
+            boolean hasNew = newCursor != null && newCursor.next();
+            boolean hasOld = oldCursor != null && oldCursor.next();
+            long rows = 0;
+            while (hasNew || hasOld) {
+                int comparison = !hasOld ? -1 : !hasNew ? 1 : Long.compare(newCursor.getId(), oldCursor.getId());
+                Long id = comparison > 0 ? oldCursor.getHash() : newCursor.getHash();
+                String newJson = comparison <= 0 ? newCursor.getJson() : null;
+                String oldJson;
+                if (comparison == 0 && changedHashes != null && Arrays.binarySearch(changedHashes, id) < 0) {
+                    oldJson = newJson;
+                } else {
+                    oldJson = comparison >= 0 ? oldCursor.getJson() : null;
+                }
+                pipeline.submit(() -> meters.record(() -> createDiffEntry(diffTableName, id, newJson, oldJson)));
+
+                if (comparison <= 0) {
+                    hasNew = newCursor.next();
+                }
+                if (comparison >= 0) {
+                    hasOld = oldCursor.next();
+                }
+                if (++rows % PROGRESS_INTERVAL == 0) {
+                    progress.rowsProcessed(PROGRESS_INTERVAL);
+                }
+            }
+            progress.rowsProcessed(rows % PROGRESS_INTERVAL);
         }
+        tableTimer(tableName, newFileId).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return null;
+    }
 
-        newDbContent.clear();
-        oldDbContent.clear();
-        initializeInventoryItemDiffDb(diffDbPath, diffEntries);
+    /**
+     * Diffs the rows of a table that SQLite found to differ between the two files, the rest having been copied by
+     * {@link DiffDbWriter#copyClassified}.
+     */
+    private Void diffChangedRows(DiffPipeline pipeline, String tableName, DataSource newDataSource, Path oldDbPath,
+        Long newFileId, JobProgress progress) throws InterruptedException
+    {
+        String diffTableName = WorldContentSchema.diffTableName(tableName);
+        TableMeters meters = new TableMeters(tableName);
+        long startNanos = System.nanoTime();
+        try (ChangedDefinitionCursor cursor = new ChangedDefinitionCursor(newDataSource, oldDbPath, tableName)) {
+            long rows = 0;
+            while (cursor.next()) {
+                Long id = cursor.getHash();
+                String newJson = cursor.getNewJson();
+                String oldJson = cursor.getOldJson();
+                pipeline.submit(() -> meters.record(() -> createDiffEntry(diffTableName, id, newJson, oldJson)));
+                if (++rows % PROGRESS_INTERVAL == 0) {
+                    progress.rowsProcessed(PROGRESS_INTERVAL);
+                }
+            }
+            progress.rowsProcessed(rows % PROGRESS_INTERVAL);
+        }
+        tableTimer(tableName, newFileId).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return null;
+    }
+
+    private Timer tableTimer(String tableName, Long newFileId) {
+        return Timer.builder("diff.table").
+            tag("table", tableName).
+            tag("fileId", String.valueOf(newFileId)).
+            description("Time spent reading a table of two world content files and queueing its diff entries").
+            register(meterRegistry);
     }
 
-    private Map<Long, String> readInventoryItemContent(Path dbPath) throws IOException {
+    private void awaitAll(List<Future<Void>> futures) throws InterruptedException {
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Diffing table failed: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+    }
+
+    private long[] changedHashes(Long newFileId, Long oldFileId, String tableName) {
+        if (newFileId == null || oldFileId == null) {
+            return null;
+        }
+        return digestService.changedHashes(newFileId, oldFileId, tableName).orElse(null);
+    }
+
+    private void checkExists(Path dbPath) {
         if (!Files.exists(dbPath)) {
             throw new IllegalArgumentException("No file at " + dbPath.toAbsolutePath());
         }
+    }
 
-        String url = "jdbc:sqlite:" + dbPath.toRealPath().toAbsolutePath();
-        DataSource dataSource = intializeDataSource(url);
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-        int count = jdbcTemplate.queryForObject("SELECT count(*) FROM DestinyInventoryItemDefinition", Integer.class);
-        Map<Long, String> inventoryItemContent = new HashMap<>(count);
-        RowCallbackHandler rch = (ResultSet rs) -> {
-            inventoryItemContent.put(rs.getLong("id"), rs.getString("json"));
-        };
-        jdbcTemplate.query("SELECT json_extract(json, '$.hash') AS id, json FROM DestinyInventoryItemDefinition", rch);
-        return inventoryItemContent;
-    }
-
-    private void initializeInventoryItemDiffDb(Path dbPath, List<DbDiffEntry> diffEntries) {
-        String url = "jdbc:sqlite:" + dbPath.toAbsolutePath();
-        DataSource dataSource = intializeDataSource(url);
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-
-        jdbcTemplate.execute("CREATE TABLE DestinyInventoryItemDiff (id BIGINT PRIMARY KEY, new_json TEXT, old_json TEXT, diff_json TEXT, added BOOLEAN, updated BOOLEAN, removed BOOLEAN, redacted BOOLEAN, revealed BOOLEAN)");
-
-        ParameterizedPreparedStatementSetter<DbDiffEntry> ppss = (ps, diffEntry) -> {
-            ps.setLong(1, diffEntry.getId());
-            ps.setString(2, diffEntry.getNewJson());
-            ps.setString(3, diffEntry.getOldJson());
-            ps.setString(4, diffEntry.getDiffJson());
-            ps.setBoolean(5, diffEntry.isAdded());
-            ps.setBoolean(6, diffEntry.isUpdated());
-            ps.setBoolean(7, diffEntry.isDeleted());
-            ps.setBoolean(8, diffEntry.isRedacted());
-            ps.setBoolean(9, diffEntry.isRevealed());
-        };
-        jdbcTemplate.batchUpdate("INSERT INTO DestinyInventoryItemDiff (id, new_json, old_json, diff_json, added, updated, removed, redacted, revealed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", diffEntries, diffEntries.size(), ppss);
-    }
-
-    private DataSource intializeDataSource(String url) {
-        return DataSourceBuilder.create().
-                url(url).
-                driverClassName(JDBC.class.getCanonicalName()).
-                type(SQLiteDataSource.class).
-                build();
-    }
-
-    private DbDiffEntry createDiffEntry(Long id, String newJson, String oldJson) {
+    DbDiffEntry createDiffEntry(String tableName, Long id, String newJson, String oldJson) {
         DbDiffEntry diffEntry = new DbDiffEntry();
+        diffEntry.setTableName(tableName);
         diffEntry.setId(id);
         diffEntry.setNewJson(newJson);
         diffEntry.setOldJson(oldJson);
 
-        if (oldJson == null) {
-            diffEntry.setAdded(true);
-            return diffEntry;
-        } else if (newJson == null) {
-            diffEntry.setDeleted(true);
-            return diffEntry;
-        }
-
         try {
-            JsonNode newJsonNode = objectMapper.readTree(newJson);
-            if (newJsonNode.get("redacted").asBoolean(false)) {
+            if (oldJson == null) {
+                diffEntry.setAdded(true);
+                diffEntry.setFacets(readHeader(newJson).getFacets());
+                return diffEntry;
+            } else if (newJson == null) {
+                diffEntry.setDeleted(true);
+                diffEntry.setFacets(readHeader(oldJson).getFacets());
+                return diffEntry;
+            } else if (newJson.equals(oldJson) && !newJson.contains(REDACTED_TRUE)) {
+                // World content stores definitions as compact JSON, so a redacted one always contains "redacted":true
+                // exactly. Identical rows without it are unchanged, and never need their header read.
+                diffEntry.setOldJson(null);
+                return diffEntry;
+            }
+
+            DefinitionHeader newHeader = readHeader(newJson);
+            if (newHeader.isRedacted()) {
                 diffEntry.setRedacted(true);
                 diffEntry.setOldJson(null);
+                diffEntry.setFacets(newHeader.getFacets());
                 return diffEntry;
             }
 
-            JsonNode oldJsonNode = objectMapper.readTree(oldJson);
-            if (oldJsonNode.get("redacted").asBoolean(false)) {
+            if (readHeader(oldJson).isRedacted()) {
                 diffEntry.setRevealed(true);
+                diffEntry.setFacets(newHeader.getFacets());
                 return diffEntry;
             }
 
-            JsonNode diff = JsonDiff.asJson(oldJsonNode, newJsonNode);
+            JsonNode newJsonNode = objectMapper.readTree(newJson);
+            JsonNode oldJsonNode = objectMapper.readTree(oldJson);
+            JsonNode diff = diffStrategy.diff(oldJsonNode, newJsonNode);
+            if (verifyDiffs && !reproduces(diff, oldJsonNode, newJsonNode)) {
+                LOGGER.warn("Patch for {} {} doesn't reproduce the new definition; falling back to json-patch: {}",
+                    tableName, id, diff);
+                verifyFailures.increment();
+                diff = JsonDiff.asJson(oldJsonNode, newJsonNode);
+            }
             if (diff.size() == 0) {
                 diffEntry.setOldJson(null);
             } else {
                 diffEntry.setUpdated(true);
                 diffEntry.setDiffJson(objectMapper.writeValueAsString(diff));
+                diffEntry.setFacets(facets(newJsonNode));
+                diffEntry.setChangedPaths(changedPaths(diff));
             }
             return diffEntry;
         } catch (IOException e) {
@@ -148,16 +452,83 @@ public class DbDiffService {
         }
     }
 
-    @Data
-    private class DbDiffEntry {
-        private Long id;
-        private String newJson;
-        private String oldJson;
-        private String diffJson;
-        private boolean isAdded = false;
-        private boolean isUpdated = false;
-        private boolean isDeleted = false;
-        private boolean isRedacted = false;
-        private boolean isRevealed = false;
+    /**
+     * The per-row meters of one table, looked up once so that recording a row doesn't go through the registry.
+     */
+    private class TableMeters {
+
+        private final Timer rowTimer;
+        private final Map<String, Counter> rowCounters = new HashMap<>();
+
+        private TableMeters(String tableName) {
+            this.rowTimer = Timer.builder("diff.row").
+                tag("table", tableName).
+                description("Time spent computing the diff entry of a single definition").
+                publishPercentileHistogram().
+                minimumExpectedValue(Duration.ofNanos(500)).
+                maximumExpectedValue(Duration.ofSeconds(1)).
+                register(meterRegistry);
+            rowCounters.put(DiffSummaryBuilder.UNCHANGED, rowCounter(tableName, DiffSummaryBuilder.UNCHANGED));
+            for (DiffChange change : DiffChange.values()) {
+                rowCounters.put(change.getColumn(), rowCounter(tableName, change.getColumn()));
+            }
+        }
+
+        private Counter rowCounter(String tableName, String change) {
+            return Counter.builder("diff.rows").
+                tag("table", tableName).
+                tag("change", change).
+                description("Definitions diffed, by the kind of change found").
+                register(meterRegistry);
+        }
+
+        private DbDiffEntry record(Supplier<DbDiffEntry> diff) {
+            long startNanos = System.nanoTime();
+            DbDiffEntry diffEntry = diff.get();
+            rowTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            rowCounters.get(DiffSummaryBuilder.changeOf(diffEntry)).increment();
+            return diffEntry;
+        }
+
+        private void count(String change, long rows) {
+            rowCounters.get(change).increment(rows);
+        }
+    }
+
+    private static boolean reproduces(JsonNode patch, JsonNode source, JsonNode target) {
+        try {
+            return JsonPatch.fromJson(patch).apply(source).equals(target);
+        } catch (IOException | JsonPatchException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the values of a definition that diff summaries are broken down by, skipping those it doesn't have.
+     */
+    private static Map<String, String> facets(JsonNode definition) {
+        Map<String, String> facets = new LinkedHashMap<>();
+        FACETS.forEach((facet, pointer) -> {
+            JsonNode value = definition.at(pointer);
+            if (value.isValueNode() && !value.isNull()) {
+                facets.put(facet, value.asText());
+            }
+        });
+        return facets;
+    }
+
+    private DefinitionHeader readHeader(String json) throws IOException {
+        return DefinitionHeader.read(objectMapper.getFactory(), json, FACETS);
+    }
+
+    /**
+     * Returns the distinct paths touched by a JSON patch, with array indexes and hash-keyed map entries collapsed to
+     * {@code *} so that the same field counts as one path across definitions.
+     */
+    private static List<String> changedPaths(JsonNode patch) {
+        return StreamSupport.stream(patch.spliterator(), false).
+            map(operation -> NUMERIC_PATH_SEGMENT.matcher(operation.path("path").asText()).replaceAll("*")).
+            distinct().
+            collect(Collectors.toList());
     }
 }
@@ -0,0 +1,125 @@
+package com.mromanak.bungieapireader.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of definition JSON against a preset dictionary. Definitions are small and share most of their
+ * keys and many of their values, so a dictionary built from those recurring fragments lets each blob be compressed on
+ * its own without paying for the same vocabulary every time.
+ */
+final class DefinitionBlobCodec {
+
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final Pattern TOKEN_PATTERN = Pattern.compile(
+        "\"[^\"\\\\]{1,64}\":|\"[^\"\\\\]{1,64}\"|-?\\d{1,12}|[\\[\\]{},:]+");
+    private static final int MIN_TOKEN_COUNT = 4;
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+        ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private DefinitionBlobCodec() {
+    }
+
+    /**
+     * Builds a dictionary out of the JSON fragments that save the most bytes across the samples. The most valuable
+     * fragments are placed at the end of the dictionary, where Deflate can reference them with the shortest distances.
+     */
+    static byte[] trainDictionary(Collection<String> samples) {
+        Map<String, Integer> tokenCounts = new HashMap<>();
+        for (String sample : samples) {
+            Matcher matcher = TOKEN_PATTERN.matcher(sample);
+            while (matcher.find()) {
+                tokenCounts.merge(matcher.group(), 1, Integer::sum);
+            }
+        }
+
+        List<String> tokens = tokenCounts.entrySet().stream().
+            filter(e -> e.getValue() >= MIN_TOKEN_COUNT && e.getKey().length() > 2).
+            sorted((a, b) -> Long.compare(score(b), score(a))).
+            map(Map.Entry::getKey).
+            collect(Collectors.toList());
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        for (String token : tokens) {
+            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length <= MAX_DICTIONARY_SIZE) {
+                selected.add(bytes);
+                size += bytes.length;
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            dictionary.write(selected.get(i), 0, selected.get(i).length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    static byte[] compress(byte[] raw, byte[] dictionary) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+        return compressed.toByteArray();
+    }
+
+    static byte[] decompress(byte[] compressed, int rawLength, byte[] dictionary) {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+
+        byte[] raw = new byte[rawLength];
+        try {
+            int offset = 0;
+            while (offset < rawLength) {
+                int length = inflater.inflate(raw, offset, rawLength - offset);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IllegalStateException("Blob was compressed with a dictionary, but none was given");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        break;
+                    }
+                }
+                offset += length;
+            }
+            if (offset != rawLength) {
+                throw new IllegalStateException("Blob inflated to " + offset + " bytes; expected " + rawLength);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt definition blob: " + e.getMessage(), e);
+        }
+        return raw;
+    }
+
+    private static long score(Map.Entry<String, Integer> tokenCount) {
+        return (long) tokenCount.getKey().length() * tokenCount.getValue();
+    }
+}
@@ -0,0 +1,110 @@
+package com.mromanak.bungieapireader.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed store of exported definition JSON. Each distinct document is stored once, keyed by its MD5 digest,
+ * and compressed with Deflate against a shared dictionary trained on definition JSON.
+ */
+@Service
+public class DefinitionBlobStore {
+
+    private final JdbcTemplate metadataJdbcTemplate;
+    private final ConcurrentMap<Long, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    private volatile BlobDictionary currentDictionary;
+
+    @Autowired
+    public DefinitionBlobStore(JdbcTemplate metadataJdbcTemplate) {
+        this.metadataJdbcTemplate = metadataJdbcTemplate;
+    }
+
+    /**
+     * Returns the dictionary new blobs should be compressed with, training and storing one from {@code samples} if no
+     * dictionary exists yet.
+     */
+    public synchronized BlobDictionary currentDictionary(Supplier<List<String>> samples) {
+        if (currentDictionary != null) {
+            return currentDictionary;
+        }
+
+        List<BlobDictionary> latest = metadataJdbcTemplate.query(
+            "SELECT dictionaryId, data FROM BlobDictionaries ORDER BY dictionaryId DESC LIMIT 1;",
+            (rs, i) -> new BlobDictionary(rs.getLong("dictionaryId"), rs.getBytes("data")));
+        if (!latest.isEmpty()) {
+            currentDictionary = latest.get(0);
+        } else {
+            byte[] data = DefinitionBlobCodec.trainDictionary(samples.get());
+            metadataJdbcTemplate.update(
+                "INSERT INTO BlobDictionaries (createdAt, data) VALUES (strftime('%s','now'), ?);", (Object) data);
+            Long dictionaryId = metadataJdbcTemplate.queryForObject(
+                "SELECT max(dictionaryId) FROM BlobDictionaries;", Long.class);
+            currentDictionary = new BlobDictionary(dictionaryId, data);
+        }
+        dictionaries.put(currentDictionary.getDictionaryId(), currentDictionary.getData());
+        return currentDictionary;
+    }
+
+    public EncodedBlob encode(String json, BlobDictionary dictionary) {
+        byte[] raw = json.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = DefinitionBlobCodec.compress(raw, dictionary.getData());
+        return new EncodedBlob(dictionary.getDictionaryId(), raw.length, compressed);
+    }
+
+    public String decode(EncodedBlob blob) {
+        return new String(decodeBytes(blob), StandardCharsets.UTF_8);
+    }
+
+    public byte[] decodeBytes(EncodedBlob blob) {
+        return DefinitionBlobCodec.decompress(blob.getData(), blob.getRawLength(), dictionary(blob.getDictionaryId()));
+    }
+
+    public Optional<String> readJson(String jsonMd5) {
+        return readBlob(jsonMd5).map(this::decode);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a stored document, for callers that write it out as is.
+     */
+    public Optional<byte[]> readBytes(String jsonMd5) {
+        return readBlob(jsonMd5).map(this::decodeBytes);
+    }
+
+    private Optional<EncodedBlob> readBlob(String jsonMd5) {
+        List<EncodedBlob> blobs = metadataJdbcTemplate.query(
+            "SELECT dictionaryId, rawLength, data FROM DefinitionBlobs WHERE jsonMd5 = ?;", new Object[]{jsonMd5},
+            (rs, i) -> new EncodedBlob(rs.getLong("dictionaryId"), rs.getInt("rawLength"), rs.getBytes("data")));
+        return blobs.stream().findFirst();
+    }
+
+    private byte[] dictionary(Long dictionaryId) {
+        return dictionaries.computeIfAbsent(dictionaryId, id -> metadataJdbcTemplate.queryForObject(
+            "SELECT data FROM BlobDictionaries WHERE dictionaryId = ?;", new Object[]{id}, byte[].class));
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BlobDictionary {
+        private final Long dictionaryId;
+        private final byte[] data;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class EncodedBlob {
+        private final Long dictionaryId;
+        private final int rawLength;
+        private final byte[] data;
+    }
+}
@@ -0,0 +1,90 @@
+package com.mromanak.bungieapireader.service;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Forward-only cursor over a world content definition table, ordered by the table's {@code id} column. The ids are the
+ * signed 32-bit form of the definition hashes, so two cursors over the same table can be merged in a single pass. The
+ * JSON column is only decoded when {@link #getJson()} is called, so rows that are known to be unchanged can be skipped
+ * cheaply.
+ */
+class DefinitionCursor implements Closeable {
+
+    private static final SQLExceptionTranslator EXCEPTION_TRANSLATOR = new SQLStateSQLExceptionTranslator();
+
+    private final String query;
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+
+    private long id;
+    private String json;
+    private boolean jsonRead;
+
+    DefinitionCursor(DataSource dataSource, String tableName) {
+        this.query = "SELECT id, json FROM " + tableName + " ORDER BY id";
+        Connection connection = null;
+        PreparedStatement statement = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement(query);
+            this.resultSet = statement.executeQuery();
+            this.statement = statement;
+            this.connection = connection;
+        } catch (SQLException e) {
+            JdbcUtils.closeStatement(statement);
+            JdbcUtils.closeConnection(connection);
+            throw EXCEPTION_TRANSLATOR.translate("Opening definition cursor", query, e);
+        }
+    }
+
+    boolean next() {
+        try {
+            json = null;
+            jsonRead = false;
+            if (!resultSet.next()) {
+                return false;
+            }
+            id = resultSet.getLong("id");
+            return true;
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Reading definition cursor", query, e);
+        }
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getHash() {
+        return id & 0xFFFFFFFFL;
+    }
+
+    String getJson() {
+        if (!jsonRead) {
+            try {
+                json = resultSet.getString("json");
+                jsonRead = true;
+            } catch (SQLException e) {
+                throw EXCEPTION_TRANSLATOR.translate("Reading definition cursor", query, e);
+            }
+        }
+        return json;
+    }
+
+    @Override
+    public void close() {
+        JdbcUtils.closeResultSet(resultSet);
+        JdbcUtils.closeStatement(statement);
+        JdbcUtils.closeConnection(connection);
+    }
+}
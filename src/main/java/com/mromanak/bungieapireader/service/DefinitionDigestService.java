@@ -0,0 +1,121 @@
+package com.mromanak.bungieapireader.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+@Service
+public class DefinitionDigestService {
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate metadataJdbcTemplate;
+    private final ContentDataSourceRegistry contentDataSources;
+
+    @Autowired
+    public DefinitionDigestService(JdbcTemplate metadataJdbcTemplate, ContentDataSourceRegistry contentDataSources) {
+        this.metadataJdbcTemplate = metadataJdbcTemplate;
+        this.contentDataSources = contentDataSources;
+    }
+
+    public void recordDigests(Long fileId, Path contentPath) {
+        Objects.requireNonNull(fileId, "File ID must be non-null");
+        try (ContentDataSourceRegistry.Lease lease = contentDataSources.lease(contentPath)) {
+            for (String tableName : WorldContentSchema.definitionTables(lease).keySet()) {
+                if (!hasDigests(fileId, tableName)) {
+                    recordDigests(fileId, lease.getDataSource(), tableName);
+                }
+            }
+        }
+    }
+
+    private void recordDigests(Long fileId, DataSource contentDataSource, String tableName) {
+        String update = "INSERT INTO DefinitionDigests (fileId, tableName, hashId, jsonMd5) VALUES (?, ?, ?, ?);";
+        metadataJdbcTemplate.execute((ConnectionCallback<Void>) (Connection connection) -> {
+            connection.setAutoCommit(false);
+            try (DefinitionCursor cursor = new DefinitionCursor(contentDataSource, tableName);
+                 PreparedStatement ps = connection.prepareStatement(update)) {
+                int pendingRows = 0;
+                while (cursor.next()) {
+                    ps.setLong(1, fileId);
+                    ps.setString(2, tableName);
+                    ps.setLong(3, cursor.getHash());
+                    ps.setString(4, DigestUtils.md5Hex(cursor.getJson()));
+                    ps.addBatch();
+                    if (++pendingRows >= INSERT_BATCH_SIZE) {
+                        ps.executeBatch();
+                        pendingRows = 0;
+                    }
+                }
+                ps.executeBatch();
+                connection.commit();
+            } catch (RuntimeException | SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return null;
+        });
+    }
+
+    public boolean hasDigests(Long fileId, String tableName) {
+        String query = "SELECT EXISTS (SELECT 1 FROM DefinitionDigests WHERE fileId = ? AND tableName = ?);";
+        return metadataJdbcTemplate.queryForObject(query, new Object[]{fileId, tableName}, Boolean.class);
+    }
+
+    public Optional<Long> fileIdFor(Path contentPath) throws IOException {
+        Path fileName = contentPath.toRealPath().getFileName();
+        List<ContentFile> contentFiles = metadataJdbcTemplate.query("SELECT fileId, fileName FROM ContentFiles;",
+            (rs, i) -> new ContentFile(rs.getLong("fileId"), rs.getString("fileName")));
+        return contentFiles.stream().
+            filter(f -> Paths.get(f.getFileName()).getFileName().equals(fileName)).
+            map(ContentFile::getFileId).
+            findFirst();
+    }
+
+    /**
+     * Returns the hashes of definitions that may differ between the two files, sorted in ascending order, or an empty
+     * {@code Optional} if digests have not been recorded for both files. A definition missing a digest on either side is
+     * included, so only definitions with equal digests in both files are known to be unchanged.
+     */
+    public Optional<long[]> changedHashes(Long newFileId, Long oldFileId, String tableName) {
+        if (!hasDigests(newFileId, tableName) || !hasDigests(oldFileId, tableName)) {
+            return Optional.empty();
+        }
+
+        String query = "SELECT n.hashId FROM DefinitionDigests n " +
+            "LEFT JOIN DefinitionDigests o ON o.fileId = ?1 AND o.tableName = n.tableName AND o.hashId = n.hashId " +
+            "WHERE n.fileId = ?2 AND n.tableName = ?3 AND (o.jsonMd5 IS NULL OR o.jsonMd5 <> n.jsonMd5) " +
+            "UNION " +
+            "SELECT o.hashId FROM DefinitionDigests o " +
+            "LEFT JOIN DefinitionDigests n ON n.fileId = ?2 AND n.tableName = o.tableName AND n.hashId = o.hashId " +
+            "WHERE o.fileId = ?1 AND o.tableName = ?3 AND n.hashId IS NULL " +
+            "ORDER BY 1;";
+        List<Long> hashes = metadataJdbcTemplate
+            .queryForList(query, new Object[]{oldFileId, newFileId, tableName}, Long.class);
+        return Optional.of(hashes.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class ContentFile {
+        private final Long fileId;
+        private final String fileName;
+    }
+}
@@ -0,0 +1,117 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The shallow fields of a definition that decide how it is classified in a diff: its top-level {@code redacted} flag
+ * and the values of its facets. They are read with a streaming parser that skips every object and array no facet
+ * points into, so no tree is built for definitions that don't need a structural diff.
+ */
+final class DefinitionHeader {
+
+    private static final String REDACTED_FIELD = "redacted";
+
+    private final boolean redacted;
+    private final Map<String, String> facets;
+
+    private DefinitionHeader(boolean redacted, Map<String, String> facets) {
+        this.redacted = redacted;
+        this.facets = facets;
+    }
+
+    /**
+     * Reads the header of a definition. It is redacted only if its {@code redacted} field is {@code true}, so a missing
+     * field reads as {@code false}. Facet values are rendered as {@code JsonNode.asText()} would render them, with
+     * nulls, objects and arrays left out.
+     *
+     * @param facetPointers the facets to read, mapped to the pointers of their values
+     */
+    static DefinitionHeader read(JsonFactory jsonFactory, String json, Map<String, JsonPointer> facetPointers)
+        throws IOException
+    {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object, but found " + parser.getCurrentToken());
+            }
+            HeaderValues values = new HeaderValues();
+            readObject(parser, facetPointers, true, values);
+
+            Map<String, String> facets = new LinkedHashMap<>();
+            facetPointers.keySet().forEach(facet -> {
+                String value = values.facets.get(facet);
+                if (value != null) {
+                    facets.put(facet, value);
+                }
+            });
+            return new DefinitionHeader(values.redacted, Collections.unmodifiableMap(facets));
+        }
+    }
+
+    private static void readObject(JsonParser parser, Map<String, JsonPointer> pointers, boolean topLevel,
+        HeaderValues values) throws IOException
+    {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (topLevel && REDACTED_FIELD.equals(name)) {
+                values.redacted = token == JsonToken.VALUE_TRUE;
+            }
+
+            Map<String, JsonPointer> nested = null;
+            for (Map.Entry<String, JsonPointer> pointer : pointers.entrySet()) {
+                JsonPointer tail = pointer.getValue().matchProperty(name);
+                if (tail == null) {
+                    continue;
+                }
+                if (tail.matches()) {
+                    values.facets.put(pointer.getKey(), token.isScalarValue() ? asText(parser, token) : null);
+                } else {
+                    if (nested == null) {
+                        nested = new HashMap<>();
+                    }
+                    nested.put(pointer.getKey(), tail);
+                }
+            }
+
+            if (token == JsonToken.START_OBJECT && nested != null) {
+                readObject(parser, nested, false, values);
+            } else if (token.isStructStart()) {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static String asText(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue().toString();
+            default:
+                return parser.getText();
+        }
+    }
+
+    boolean isRedacted() {
+        return redacted;
+    }
+
+    Map<String, String> getFacets() {
+        return facets;
+    }
+
+    private static class HeaderValues {
+        private boolean redacted;
+        private final Map<String, String> facets = new HashMap<>();
+    }
+}
@@ -0,0 +1,546 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.fge.jsonpatch.JsonPatch;
+import com.github.fge.jsonpatch.JsonPatchException;
+import com.mromanak.bungieapireader.model.DiffChange;
+import com.mromanak.bungieapireader.model.HistoryEntry;
+import com.mromanak.bungieapireader.service.DefinitionBlobStore.BlobDictionary;
+import com.mromanak.bungieapireader.service.DefinitionBlobStore.EncodedBlob;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+
+/**
+ * Keeps the history of every definition across the content files recorded into it, in the metadata DB.
+ * <p>
+ * A definition gets a row in {@code DefinitionHistory} for each file in which it was added, changed or removed. Added
+ * definitions are stored as snapshots, whose JSON lives in the content-addressed blob store alongside exported
+ * definitions. Changes are stored as JSON patches against the previous version, compressed with the blob store's
+ * dictionary, until {@code history.maxChainLength} patches have been stored in a row; the next change is stored as a
+ * snapshot again, so that no version takes more than that many patches to rebuild.
+ * <p>
+ * Files must be recorded in the order they were downloaded. A definition at any file ID is the version recorded in the
+ * latest file at or before it, and rebuilt versions are cached.
+ */
+@Service
+public class DefinitionHistoryService implements MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefinitionHistoryService.class);
+    private static final int INSERT_BATCH_SIZE = 1000;
+    private static final int DICTIONARY_SAMPLE_SIZE = 2000;
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    @Value("${scratchDirectory}")
+    private String scratchDirectory;
+
+    private final JdbcTemplate metadataJdbcTemplate;
+    private final DefinitionBlobStore blobStore;
+    private final ContentDataSourceRegistry contentDataSources;
+    private final ObjectMapper objectMapper;
+    private final JsonDiffStrategy diffStrategy;
+    private final int maxChainLength;
+    private final Cache<VersionKey, Version> versions;
+
+    private volatile Optional<Long> latestFileId;
+
+    @Autowired
+    public DefinitionHistoryService(JdbcTemplate metadataJdbcTemplate, DefinitionBlobStore blobStore,
+        ContentDataSourceRegistry contentDataSources, ObjectMapper objectMapper,
+        @Value("${diff.engine:keyed}") String engine, @Value("${history.maxChainLength:16}") int maxChainLength,
+        @Value("${history.cache.maxBytes:33554432}") long cacheMaxBytes)
+    {
+        this.metadataJdbcTemplate = metadataJdbcTemplate;
+        this.blobStore = blobStore;
+        this.contentDataSources = contentDataSources;
+        this.objectMapper = objectMapper;
+        this.diffStrategy = JsonDiffStrategy.named(engine);
+        this.maxChainLength = maxChainLength;
+        this.versions = Caffeine.newBuilder().
+            maximumWeight(cacheMaxBytes).
+            weigher((VersionKey key, Version version) -> version.getRawLength() + ENTRY_OVERHEAD_BYTES).
+            recordStats().
+            build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, versions, "history");
+    }
+
+    /**
+     * Records every content file that is still in the scratch directory and newer than the latest recorded file.
+     */
+    public List<Long> recordAll(JobProgress progress) {
+        Map<Long, Path> contentPaths = new LinkedHashMap<>();
+        metadataJdbcTemplate.query("SELECT fileId, fileName FROM ContentFiles WHERE fileId > ? ORDER BY fileId;",
+            new Object[]{latestRecordedFileId().orElse(0L)}, rs -> {
+                Path path = Paths.get(scratchDirectory).resolve(Paths.get(rs.getString("fileName")).getFileName());
+                if (Files.exists(path)) {
+                    contentPaths.put(rs.getLong("fileId"), path);
+                }
+            });
+
+        List<Long> recordedFileIds = new ArrayList<>();
+        for (Map.Entry<Long, Path> contentPath : contentPaths.entrySet()) {
+            record(contentPath.getKey(), contentPath.getValue(), progress);
+            recordedFileIds.add(contentPath.getKey());
+        }
+        return recordedFileIds;
+    }
+
+    /**
+     * Records the definitions of a content file in the history, unless it has been recorded already.
+     *
+     * @throws IllegalArgumentException if a newer file has already been recorded
+     */
+    public synchronized void record(Long fileId, Path contentPath, JobProgress progress) {
+        Long latest = latestRecordedFileId().orElse(0L);
+        if (latest >= fileId) {
+            if (isRecorded(fileId)) {
+                return;
+            }
+            throw new IllegalArgumentException("Content file " + fileId + " is older than " + latest +
+                ", the latest one in the history");
+        }
+
+        long startNanos = System.nanoTime();
+        HistoryStats stats = new HistoryStats();
+        try (ContentDataSourceRegistry.Lease lease = contentDataSources.lease(contentPath)) {
+            Map<String, Long> definitionTables = WorldContentSchema.definitionTables(lease);
+            String largestTable = definitionTables.entrySet().stream().
+                max(Map.Entry.comparingByValue()).
+                map(Map.Entry::getKey).
+                orElse(null);
+            BlobDictionary dictionary = blobStore.currentDictionary(() -> lease.getJdbcTemplate().queryForList(
+                "SELECT json FROM " + largestTable + " ORDER BY random() LIMIT ?;",
+                new Object[]{DICTIONARY_SAMPLE_SIZE}, String.class));
+
+            TreeSet<String> tableNames = new TreeSet<>(definitionTables.keySet());
+            tableNames.addAll(metadataJdbcTemplate.queryForList(
+                "SELECT DISTINCT tableName FROM DefinitionHistory;", String.class));
+            progress.phase("recording history", definitionTables.values().stream().mapToLong(Long::longValue).sum());
+            for (String tableName : tableNames) {
+                recordTable(fileId, tableName, definitionTables.containsKey(tableName) ? lease : null, dictionary,
+                    stats, progress);
+            }
+            metadataJdbcTemplate.update(
+                "INSERT INTO HistoryFiles (fileId, recordedAt) VALUES (?, strftime('%s','now'));", fileId);
+            latestFileId = Optional.of(fileId);
+        } catch (RuntimeException e) {
+            metadataJdbcTemplate.update("DELETE FROM DefinitionHistory WHERE fileId = ?;", fileId);
+            versions.invalidateAll();
+            throw e;
+        }
+        LOGGER.info("Recorded history of {} in {} ms: {} snapshots, {} patches ({} bytes), {} removals", contentPath,
+            (System.nanoTime() - startNanos) / 1_000_000, stats.snapshots, stats.patches, stats.patchBytes,
+            stats.removals);
+    }
+
+    /**
+     * Writes the changes to one table in a single transaction. Everything read while recording goes through the
+     * writing connection, so it sees the blobs written so far and never waits on its own uncommitted writes.
+     */
+    private void recordTable(Long fileId, String tableName, ContentDataSourceRegistry.Lease lease,
+        BlobDictionary dictionary, HistoryStats stats, JobProgress progress)
+    {
+        String update = "INSERT INTO DefinitionHistory (tableName, hashId, fileId, change, jsonMd5, chainLength, " +
+            "dictionaryId, rawLength, data) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);";
+        String blobUpdate = "INSERT OR IGNORE INTO DefinitionBlobs (jsonMd5, dictionaryId, rawLength, data) " +
+            "VALUES (?, ?, ?, ?);";
+        metadataJdbcTemplate.execute((ConnectionCallback<Void>) (Connection connection) -> {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            connection.setAutoCommit(false);
+            try (PreparedStatement ps = connection.prepareStatement(update);
+                 PreparedStatement blobPs = connection.prepareStatement(blobUpdate)) {
+                HistoryWriter writer = new HistoryWriter(jdbcTemplate, ps, blobPs, tableName, fileId, dictionary,
+                    stats);
+                Map<Long, Head> heads = heads(jdbcTemplate, tableName);
+                if (lease != null) {
+                    try (DefinitionCursor cursor = new DefinitionCursor(lease.getDataSource(), tableName)) {
+                        long rows = 0;
+                        while (cursor.next()) {
+                            writer.write(cursor.getHash(), cursor.getJson(), heads.remove(cursor.getHash()));
+                            if (++rows % INSERT_BATCH_SIZE == 0) {
+                                progress.rowsProcessed(INSERT_BATCH_SIZE);
+                            }
+                        }
+                        progress.rowsProcessed(rows % INSERT_BATCH_SIZE);
+                    }
+                }
+                for (Map.Entry<Long, Head> head : heads.entrySet()) {
+                    if (!DiffChange.REMOVED.getColumn().equals(head.getValue().getChange())) {
+                        writer.writeRemoval(head.getKey());
+                    }
+                }
+                writer.flush();
+                connection.commit();
+            } catch (RuntimeException | SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns the latest version of every definition of a table that is in the history, removed ones included.
+     * SQLite takes the bare columns of a {@code max()} aggregate from the row holding the maximum.
+     */
+    private static Map<Long, Head> heads(JdbcTemplate jdbcTemplate, String tableName) {
+        Map<Long, Head> heads = new HashMap<>();
+        String query = "SELECT hashId, max(fileId) AS fileId, change, jsonMd5, chainLength FROM DefinitionHistory " +
+            "WHERE tableName = ? GROUP BY hashId;";
+        jdbcTemplate.query(query, new Object[]{tableName}, rs -> {
+            heads.put(rs.getLong("hashId"), new Head(rs.getLong("fileId"), rs.getString("change"),
+                rs.getString("jsonMd5"), rs.getInt("chainLength")));
+        });
+        return heads;
+    }
+
+    /**
+     * Rebuilds a definition as of the content file with ID {@code fileId}, or the latest recorded file if it is null.
+     * The JSON is re-serialized from the rebuilt tree, so it is equivalent to, though not necessarily byte-for-byte the
+     * same as, the JSON in the content file.
+     *
+     * @return the definition, or an empty {@code Optional} if it didn't exist in that file
+     * @throws IllegalArgumentException if the file is newer than the latest recorded file, or nothing is recorded yet
+     */
+    public Optional<HistoricalDefinition> definition(String tableName, long hash, Long fileId) {
+        Long resolvedFileId = resolveFileId(fileId);
+        String query = "SELECT fileId, change, jsonMd5 FROM DefinitionHistory " +
+            "WHERE tableName = ? AND hashId = ? AND fileId <= ? ORDER BY fileId DESC LIMIT 1;";
+        List<HistoryEntry> latest = metadataJdbcTemplate.query(query, new Object[]{tableName, hash, resolvedFileId},
+            (rs, i) -> {
+                HistoryEntry entry = new HistoryEntry();
+                entry.setFileId(rs.getLong("fileId"));
+                entry.setChange(rs.getString("change"));
+                entry.setJsonMd5(rs.getString("jsonMd5"));
+                return entry;
+            });
+        if (latest.isEmpty() || DiffChange.REMOVED.getColumn().equals(latest.get(0).getChange())) {
+            return Optional.empty();
+        }
+
+        HistoryEntry entry = latest.get(0);
+        JsonNode json = version(metadataJdbcTemplate, new VersionKey(tableName, hash, entry.getFileId())).getJson();
+        try {
+            return Optional.of(new HistoricalDefinition(entry.getFileId(), entry.getJsonMd5(),
+                objectMapper.writeValueAsBytes(json)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lists every recorded change to a definition, oldest first.
+     */
+    public List<HistoryEntry> timeline(String tableName, long hash) {
+        String query = "SELECT h.fileId, f.fileName, f.downloadedAt, h.change, h.jsonMd5 FROM DefinitionHistory h " +
+            "LEFT JOIN ContentFiles f ON f.fileId = h.fileId WHERE h.tableName = ? AND h.hashId = ? ORDER BY h.fileId;";
+        return metadataJdbcTemplate.query(query, new Object[]{tableName, hash}, (rs, i) -> {
+            HistoryEntry entry = new HistoryEntry();
+            entry.setFileId(rs.getLong("fileId"));
+            entry.setFileName(rs.getString("fileName"));
+            entry.setDownloadedAt(rs.getObject("downloadedAt") == null ? null : rs.getLong("downloadedAt"));
+            entry.setChange(rs.getString("change"));
+            entry.setJsonMd5(rs.getString("jsonMd5"));
+            return entry;
+        });
+    }
+
+    private Long resolveFileId(Long fileId) {
+        Long latest = latestRecordedFileId().
+            orElseThrow(() -> new IllegalArgumentException("No content files have been recorded in the history"));
+        if (fileId == null) {
+            return latest;
+        } else if (fileId > latest) {
+            throw new IllegalArgumentException("Content file " + fileId + " is newer than " + latest +
+                ", the latest one in the history");
+        }
+        return fileId;
+    }
+
+    /**
+     * Returns the ID of the latest recorded file, which only changes when this service records one.
+     */
+    private Optional<Long> latestRecordedFileId() {
+        Optional<Long> latest = latestFileId;
+        if (latest == null) {
+            latest = Optional.ofNullable(
+                metadataJdbcTemplate.queryForObject("SELECT max(fileId) FROM HistoryFiles;", Long.class));
+            latestFileId = latest;
+        }
+        return latest;
+    }
+
+    private boolean isRecorded(Long fileId) {
+        return metadataJdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM HistoryFiles WHERE fileId = ?);",
+            new Object[]{fileId}, Boolean.class);
+    }
+
+    private Version version(JdbcTemplate jdbcTemplate, VersionKey key) {
+        return versions.get(key, k -> rebuild(jdbcTemplate, k));
+    }
+
+    /**
+     * Rebuilds the version of a definition recorded in the file {@code key} names, which must not be a removal, from the
+     * latest snapshot at or before that file, or from the latest cached version after the snapshot.
+     */
+    private Version rebuild(JdbcTemplate jdbcTemplate, VersionKey key) {
+        String query = "SELECT h.fileId, h.chainLength, " +
+            "coalesce(h.dictionaryId, b.dictionaryId) AS dictionaryId, " +
+            "coalesce(h.rawLength, b.rawLength) AS rawLength, coalesce(h.data, b.data) AS data " +
+            "FROM DefinitionHistory h LEFT JOIN DefinitionBlobs b ON h.chainLength = 0 AND b.jsonMd5 = h.jsonMd5 " +
+            "WHERE h.tableName = ?1 AND h.hashId = ?2 AND h.fileId <= ?3 AND h.fileId >= (" +
+            "SELECT max(fileId) FROM DefinitionHistory " +
+            "WHERE tableName = ?1 AND hashId = ?2 AND fileId <= ?3 AND chainLength = 0) " +
+            "ORDER BY h.fileId;";
+        List<HistoryRow> rows = jdbcTemplate.query(query, new Object[]{key.getTableName(), key.getHash(),
+            key.getFileId()}, (rs, i) -> new HistoryRow(rs.getLong("fileId"), rs.getInt("chainLength"),
+            new EncodedBlob(rs.getLong("dictionaryId"), rs.getInt("rawLength"), rs.getBytes("data"))));
+        if (rows.isEmpty() || rows.get(rows.size() - 1).getFileId() != key.getFileId()) {
+            throw new IllegalStateException("No version of " + key.getTableName() + " " + key.getHash() +
+                " is recorded in content file " + key.getFileId());
+        }
+
+        Version version = null;
+        int base = rows.size() - 1;
+        while (version == null && --base >= 0) {
+            version = versions.getIfPresent(new VersionKey(key.getTableName(), key.getHash(),
+                rows.get(base).getFileId()));
+        }
+        try {
+            if (version == null) {
+                base = 0;
+                byte[] snapshot = blobStore.decodeBytes(rows.get(0).getBlob());
+                version = new Version(objectMapper.readTree(snapshot), snapshot.length);
+            }
+            for (HistoryRow row : rows.subList(base + 1, rows.size())) {
+                JsonPatch patch = JsonPatch.fromJson(objectMapper.readTree(blobStore.decodeBytes(row.getBlob())));
+                version = new Version(patch.apply(version.getJson()), version.getRawLength());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e.getMessage(), e);
+        } catch (JsonPatchException e) {
+            throw new IllegalStateException("Patch of " + key.getTableName() + " " + key.getHash() +
+                " doesn't apply: " + e.getMessage(), e);
+        }
+        return version;
+    }
+
+    /**
+     * Writes the history rows of one table. A definition whose digest matches its latest version is skipped; any other
+     * is stored as a patch when there's room left in its chain and the patch is both correct and smaller than the
+     * JSON, and as a snapshot otherwise.
+     */
+    private class HistoryWriter {
+
+        private final JdbcTemplate jdbcTemplate;
+        private final PreparedStatement ps;
+        private final PreparedStatement blobPs;
+        private final String tableName;
+        private final Long fileId;
+        private final BlobDictionary dictionary;
+        private final HistoryStats stats;
+        private int pendingRows;
+
+        private HistoryWriter(JdbcTemplate jdbcTemplate, PreparedStatement ps, PreparedStatement blobPs,
+            String tableName, Long fileId, BlobDictionary dictionary, HistoryStats stats)
+        {
+            this.jdbcTemplate = jdbcTemplate;
+            this.ps = ps;
+            this.blobPs = blobPs;
+            this.tableName = tableName;
+            this.fileId = fileId;
+            this.dictionary = dictionary;
+            this.stats = stats;
+        }
+
+        private void write(long hash, String json, Head head) throws SQLException {
+            String jsonMd5 = DigestUtils.md5Hex(json);
+            if (head == null || DiffChange.REMOVED.getColumn().equals(head.getChange())) {
+                writeSnapshot(hash, DiffChange.ADDED, json, jsonMd5);
+                return;
+            } else if (jsonMd5.equals(head.getJsonMd5())) {
+                return;
+            }
+
+            JsonNode oldJson = rebuild(jdbcTemplate, new VersionKey(tableName, hash, head.getFileId())).getJson();
+            JsonNode newJson = readTree(json);
+            DiffChange change = newJson.path("redacted").booleanValue() ? DiffChange.REDACTED :
+                oldJson.path("redacted").booleanValue() ? DiffChange.REVEALED : DiffChange.UPDATED;
+            if (head.getChainLength() < maxChainLength) {
+                byte[] patch = patch(oldJson, newJson, json.length());
+                if (patch != null) {
+                    writePatch(hash, change, jsonMd5, head.getChainLength() + 1, patch);
+                    return;
+                }
+            }
+            writeSnapshot(hash, change, json, jsonMd5);
+        }
+
+        /**
+         * Returns the patch from one version to the next, or null if it is no smaller than the new JSON or doesn't
+         * reproduce it.
+         */
+        private byte[] patch(JsonNode oldJson, JsonNode newJson, int jsonLength) {
+            JsonNode patch = diffStrategy.diff(oldJson, newJson);
+            try {
+                byte[] patchBytes = objectMapper.writeValueAsBytes(patch);
+                if (patchBytes.length >= jsonLength || !JsonPatch.fromJson(patch).apply(oldJson).equals(newJson)) {
+                    return null;
+                }
+                return patchBytes;
+            } catch (IOException | JsonPatchException e) {
+                return null;
+            }
+        }
+
+        private JsonNode readTree(String json) {
+            try {
+                return objectMapper.readTree(json);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e.getMessage(), e);
+            }
+        }
+
+        private void writeSnapshot(long hash, DiffChange change, String json, String jsonMd5) throws SQLException {
+            boolean stored = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM DefinitionBlobs WHERE jsonMd5 = ?);", new Object[]{jsonMd5},
+                Boolean.class);
+            if (!stored) {
+                EncodedBlob blob = blobStore.encode(json, dictionary);
+                blobPs.setString(1, jsonMd5);
+                blobPs.setLong(2, blob.getDictionaryId());
+                blobPs.setInt(3, blob.getRawLength());
+                blobPs.setBytes(4, blob.getData());
+                blobPs.addBatch();
+            }
+            add(hash, change, jsonMd5, 0, null);
+            stats.snapshots++;
+        }
+
+        private void writePatch(long hash, DiffChange change, String jsonMd5, int chainLength, byte[] patch)
+            throws SQLException
+        {
+            EncodedBlob blob = new EncodedBlob(dictionary.getDictionaryId(), patch.length,
+                DefinitionBlobCodec.compress(patch, dictionary.getData()));
+            add(hash, change, jsonMd5, chainLength, blob);
+            stats.patches++;
+            stats.patchBytes += blob.getData().length;
+        }
+
+        private void writeRemoval(long hash) throws SQLException {
+            add(hash, DiffChange.REMOVED, null, null, null);
+            stats.removals++;
+        }
+
+        private void add(long hash, DiffChange change, String jsonMd5, Integer chainLength, EncodedBlob blob)
+            throws SQLException
+        {
+            ps.setString(1, tableName);
+            ps.setLong(2, hash);
+            ps.setLong(3, fileId);
+            ps.setString(4, change.getColumn());
+            ps.setString(5, jsonMd5);
+            ps.setObject(6, chainLength, Types.INTEGER);
+            ps.setObject(7, blob == null ? null : blob.getDictionaryId(), Types.INTEGER);
+            ps.setObject(8, blob == null ? null : blob.getRawLength(), Types.INTEGER);
+            ps.setBytes(9, blob == null ? null : blob.getData());
+            ps.addBatch();
+            if (++pendingRows >= INSERT_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            blobPs.executeBatch();
+            ps.executeBatch();
+            pendingRows = 0;
+        }
+    }
+
+    /**
+     * A rebuilt definition, as UTF-8 JSON, and the file in which this version of it was recorded.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class HistoricalDefinition {
+        private final Long fileId;
+        private final String jsonMd5;
+        private final byte[] json;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class Version {
+        private final JsonNode json;
+        private final int rawLength;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class VersionKey {
+        private final String tableName;
+        private final long hash;
+        private final long fileId;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class Head {
+        private final long fileId;
+        private final String change;
+        private final String jsonMd5;
+        private final int chainLength;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class HistoryRow {
+        private final long fileId;
+        private final int chainLength;
+        private final EncodedBlob blob;
+    }
+
+    private static class HistoryStats {
+        private long snapshots;
+        private long patches;
+        private long patchBytes;
+        private long removals;
+    }
+}
@@ -0,0 +1,218 @@
+package com.mromanak.bungieapireader.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Memory-mapped index from unsigned definition hashes to the JSON of every definition in a world content file.
+ * <p>
+ * The JSON of each table is packed into a data file, and the index file holds one fixed-size entry per definition
+ * ({@code hash int, offset long, length int}), grouped by table and sorted by unsigned hash within each table. Lookups
+ * binary search the mapped entries directly, so they allocate nothing and never touch SQLite.
+ */
+final class DefinitionIndex {
+
+    private static final int MAGIC = 0x44494458;
+    private static final int VERSION = 1;
+    private static final int ENTRY_SIZE = 16;
+
+    private final Map<String, TableRange> tables;
+    private final ByteBuffer entries;
+    private final ByteBuffer data;
+
+    private DefinitionIndex(Map<String, TableRange> tables, ByteBuffer entries, ByteBuffer data) {
+        this.tables = tables;
+        this.entries = entries;
+        this.data = data;
+    }
+
+    /**
+     * Writes the index and data files for every definition table in a content file. Both are written to temporary
+     * files and renamed into place, data file first, so an index file only ever exists next to its complete data file.
+     */
+    static void build(ContentDataSourceRegistry.Lease lease, Path indexPath, Path dataPath) throws IOException {
+        Map<String, Long> definitionTables = WorldContentSchema.definitionTables(lease);
+        Path temporaryIndexPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        Path temporaryDataPath = dataPath.resolveSibling(dataPath.getFileName() + ".tmp");
+
+        Map<String, TableRange> tables = new LinkedHashMap<>();
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        DataOutputStream entryOutput = new DataOutputStream(entryBytes);
+        try (OutputStream dataOutput = new BufferedOutputStream(Files.newOutputStream(temporaryDataPath))) {
+            long dataOffset = 0;
+            int entryCount = 0;
+            for (Map.Entry<String, Long> table : definitionTables.entrySet()) {
+                int rows = 0;
+                long[] keys = new long[Math.toIntExact(table.getValue())];
+                long[] offsets = new long[keys.length];
+                int[] lengths = new int[keys.length];
+                try (DefinitionCursor cursor = new DefinitionCursor(lease.getDataSource(), table.getKey())) {
+                    while (cursor.next()) {
+                        if (rows == keys.length) {
+                            keys = Arrays.copyOf(keys, rows * 2 + 16);
+                            offsets = Arrays.copyOf(offsets, keys.length);
+                            lengths = Arrays.copyOf(lengths, keys.length);
+                        }
+                        byte[] json = cursor.getJson().getBytes(StandardCharsets.UTF_8);
+                        dataOutput.write(json);
+                        // Flipping the sign bit makes a signed sort of the keys order them by unsigned hash
+                        keys[rows] = ((long) ((int) cursor.getId() ^ Integer.MIN_VALUE) << 32) | rows;
+                        offsets[rows] = dataOffset;
+                        lengths[rows] = json.length;
+                        dataOffset += json.length;
+                        rows++;
+                    }
+                }
+
+                Arrays.sort(keys, 0, rows);
+                for (int i = 0; i < rows; i++) {
+                    int row = (int) keys[i];
+                    entryOutput.writeInt((int) (keys[i] >> 32) ^ Integer.MIN_VALUE);
+                    entryOutput.writeLong(offsets[row]);
+                    entryOutput.writeInt(lengths[row]);
+                }
+                tables.put(table.getKey(), new TableRange(entryCount, rows));
+                entryCount += rows;
+            }
+            if (dataOffset > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Definition JSON in " + lease.getPath() + " is too large to map");
+            }
+        } catch (RuntimeException | IOException e) {
+            Files.deleteIfExists(temporaryDataPath);
+            throw e;
+        }
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(tables.size());
+        for (Map.Entry<String, TableRange> table : tables.entrySet()) {
+            header.writeUTF(table.getKey());
+            header.writeInt(table.getValue().getFirstEntry());
+            header.writeInt(table.getValue().getEntryCount());
+        }
+
+        try (DataOutputStream indexOutput = new DataOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(temporaryIndexPath)))) {
+            indexOutput.writeInt(MAGIC);
+            indexOutput.writeInt(VERSION);
+            indexOutput.writeInt(12 + headerBytes.size());
+            headerBytes.writeTo(indexOutput);
+            entryBytes.writeTo(indexOutput);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporaryIndexPath);
+            Files.deleteIfExists(temporaryDataPath);
+            throw e;
+        }
+
+        Files.move(temporaryDataPath, dataPath, ATOMIC_MOVE, REPLACE_EXISTING);
+        Files.move(temporaryIndexPath, indexPath, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    static DefinitionIndex open(Path indexPath, Path dataPath) throws IOException {
+        Map<String, TableRange> tables = new HashMap<>();
+        int entriesOffset;
+        try (DataInputStream header = new DataInputStream(Files.newInputStream(indexPath))) {
+            if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                throw new IOException("Unrecognized definition index " + indexPath);
+            }
+            entriesOffset = header.readInt();
+            int tableCount = header.readInt();
+            for (int i = 0; i < tableCount; i++) {
+                tables.put(header.readUTF(), new TableRange(header.readInt(), header.readInt()));
+            }
+        }
+
+        try (FileChannel indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ);
+             FileChannel dataChannel = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+            MappedByteBuffer entries = indexChannel.map(FileChannel.MapMode.READ_ONLY, entriesOffset,
+                indexChannel.size() - entriesOffset);
+            MappedByteBuffer data = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size());
+            return new DefinitionIndex(tables, entries, data);
+        }
+    }
+
+    Set<String> tableNames() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * Returns the entry for a definition, or -1 if the table has no definition with that hash.
+     */
+    int find(String table, long hash) {
+        TableRange range = tables.get(table);
+        if (range == null) {
+            return -1;
+        }
+
+        int key = (int) hash;
+        int low = range.getFirstEntry();
+        int high = low + range.getEntryCount() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = Integer.compareUnsigned(entries.getInt(middle * ENTRY_SIZE), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    int length(int entry) {
+        return entries.getInt(entry * ENTRY_SIZE + 12);
+    }
+
+    /**
+     * Returns a read-only view of the UTF-8 JSON of an entry, backed by the mapped data file.
+     */
+    ByteBuffer slice(int entry) {
+        int offset = (int) entries.getLong(entry * ENTRY_SIZE + 4);
+        ByteBuffer slice = data.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length(entry));
+        return slice.slice();
+    }
+
+    byte[] bytes(int entry) {
+        byte[] json = new byte[length(entry)];
+        slice(entry).get(json);
+        return json;
+    }
+
+    String json(int entry) {
+        return new String(bytes(entry), StandardCharsets.UTF_8);
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class TableRange {
+        private final int firstEntry;
+        private final int entryCount;
+    }
+}
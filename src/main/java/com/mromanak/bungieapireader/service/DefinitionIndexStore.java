@@ -0,0 +1,135 @@
+package com.mromanak.bungieapireader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds and opens the {@link DefinitionIndex} of each exported content file. Indexes live in the {@code index}
+ * directory under the scratch directory, named by file ID, and outlive the content files they were built from. Only
+ * the {@code export.indexesRetained} most recently built indexes are kept; lookups in older files fall back to the
+ * content file or the exported tables.
+ */
+@Component
+public class DefinitionIndexStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefinitionIndexStore.class);
+
+    @Value("${scratchDirectory}")
+    private String scratchDirectory;
+
+    @Value("${export.indexesRetained:2}")
+    private int indexesRetained;
+
+    private final ContentDataSourceRegistry contentDataSources;
+    private final ConcurrentMap<Long, DefinitionIndex> indexes = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DefinitionIndexStore(ContentDataSourceRegistry contentDataSources) {
+        this.contentDataSources = contentDataSources;
+    }
+
+    public boolean exists(Long fileId) {
+        return Files.exists(indexPath(fileId));
+    }
+
+    public void build(Long fileId, Path contentPath) throws IOException {
+        Path indexPath = indexPath(fileId);
+        Files.createDirectories(indexPath.getParent());
+        long startNanos = System.nanoTime();
+        try (ContentDataSourceRegistry.Lease lease = contentDataSources.lease(contentPath)) {
+            DefinitionIndex.build(lease, indexPath, dataPath(fileId));
+        }
+        indexes.remove(fileId);
+        LOGGER.info("Indexed definitions of {} in {} ms", contentPath, (System.nanoTime() - startNanos) / 1_000_000);
+        try {
+            prune();
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.warn("Deleting old definition indexes failed; they will be retried after the next build", e);
+        }
+    }
+
+    /**
+     * Returns the index of a content file, or an empty {@code Optional} if none has been built.
+     */
+    Optional<DefinitionIndex> index(Long fileId) {
+        DefinitionIndex index = indexes.get(fileId);
+        if (index != null) {
+            return Optional.of(index);
+        }
+        return Optional.ofNullable(indexes.computeIfAbsent(fileId, id -> {
+            if (!exists(id)) {
+                return null;
+            }
+            try {
+                return DefinitionIndex.open(indexPath(id), dataPath(id));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Opening definition index of file " + id + " failed", e);
+            }
+        }));
+    }
+
+    /**
+     * Deletes all but the most recently built {@code export.indexesRetained} indexes, and drops them from the open
+     * indexes so that their mappings can be released. A lookup still holding a dropped index keeps reading its mapping.
+     */
+    private synchronized void prune() throws IOException {
+        if (indexesRetained <= 0) {
+            return;
+        }
+        List<Path> indexPaths;
+        try (Stream<Path> files = Files.list(Paths.get(scratchDirectory, "index"))) {
+            indexPaths = files.
+                filter(path -> path.getFileName().toString().matches("\\d+\\.idx")).
+                sorted(Comparator.comparing(DefinitionIndexStore::lastModified).reversed()).
+                collect(Collectors.toList());
+        }
+        for (Path indexPath : indexPaths.subList(Math.min(indexesRetained, indexPaths.size()), indexPaths.size())) {
+            String fileName = indexPath.getFileName().toString();
+            Long fileId = Long.valueOf(fileName.substring(0, fileName.length() - ".idx".length()));
+            // Deleting under the map's lock keeps a concurrent lookup from opening the files again as they go. The index
+            // file goes first, so that a data file is never left behind as the only sign of an index.
+            indexes.compute(fileId, (id, index) -> {
+                try {
+                    Files.deleteIfExists(indexPath);
+                    Files.deleteIfExists(dataPath(id));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Deleting definition index of file " + id + " failed", e);
+                }
+                return null;
+            });
+            LOGGER.info("Deleted definition index of file {}", fileId);
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading modification time of " + path + " failed", e);
+        }
+    }
+
+    private Path indexPath(Long fileId) {
+        return Paths.get(scratchDirectory, "index", fileId + ".idx");
+    }
+
+    private Path dataPath(Long fileId) {
+        return Paths.get(scratchDirectory, "index", fileId + ".dat");
+    }
+}
@@ -0,0 +1,275 @@
+package com.mromanak.bungieapireader.service;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Looks up individual definitions by hash, through a cache bounded by the size of the JSON it holds. Definitions are
+ * read from the {@link DefinitionIndex} of the requested version when one has been built, then from its world content
+ * file, then from its exported blobs once that file has been rotated out of the scratch directory.
+ */
+@Service
+public class DefinitionLookupService implements MeterBinder {
+
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("Destiny\\w+Definition");
+    private static final long MAX_HASH = 0xFFFFFFFFL;
+    private static final long LATEST_FILE_TTL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int QUERY_CHUNK_SIZE = 500;
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    @Value("${scratchDirectory}")
+    private String scratchDirectory;
+
+    private final JdbcTemplate metadataJdbcTemplate;
+    private final ContentDataSourceRegistry contentDataSources;
+    private final ContentService contentService;
+    private final DefinitionIndexStore indexStore;
+    private final LoadingCache<DefinitionKey, CachedDefinition> cache;
+    private final ConcurrentMap<Long, Path> contentPaths = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Set<String>> definitionTables = new ConcurrentHashMap<>();
+
+    private volatile LatestFile latestFile;
+
+    @Autowired
+    public DefinitionLookupService(JdbcTemplate metadataJdbcTemplate, ContentDataSourceRegistry contentDataSources,
+        ContentService contentService, DefinitionIndexStore indexStore,
+        @Value("${definitions.cache.maxBytes:67108864}") long cacheMaxBytes)
+    {
+        this.metadataJdbcTemplate = metadataJdbcTemplate;
+        this.contentDataSources = contentDataSources;
+        this.contentService = contentService;
+        this.indexStore = indexStore;
+        this.cache = Caffeine.newBuilder().
+            maximumWeight(cacheMaxBytes).
+            weigher((DefinitionKey key, CachedDefinition definition) ->
+                definition.getJson().length + ENTRY_OVERHEAD_BYTES).
+            recordStats().
+            build(new DefinitionLoader());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "definitions");
+    }
+
+    /**
+     * Looks up a definition in the content file with ID {@code fileId}, or the latest content file if it is null.
+     *
+     * @throws IllegalArgumentException if the table, hash or file ID is invalid
+     */
+    public Optional<CachedDefinition> lookup(String table, long hash, Long fileId) {
+        checkHash(hash);
+        Optional<Long> resolvedFileId = resolveFileId(fileId);
+        if (!resolvedFileId.isPresent()) {
+            return Optional.empty();
+        }
+        checkTable(resolvedFileId.get(), table);
+        return Optional.ofNullable(cache.get(new DefinitionKey(resolvedFileId.get(), table, hash)));
+    }
+
+    /**
+     * Looks up several definitions at once, returning those that exist in the order they were asked for.
+     *
+     * @throws IllegalArgumentException if the table, any hash or the file ID is invalid, or there are more than
+     * {@link #MAX_BATCH_SIZE} hashes
+     */
+    public List<CachedDefinition> lookupAll(String table, List<Long> hashes, Long fileId) {
+        if (hashes.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " definitions can be looked up at once");
+        }
+        hashes.forEach(DefinitionLookupService::checkHash);
+        Optional<Long> resolvedFileId = resolveFileId(fileId);
+        if (!resolvedFileId.isPresent()) {
+            return Collections.emptyList();
+        }
+        checkTable(resolvedFileId.get(), table);
+
+        List<DefinitionKey> keys = hashes.stream().
+            map(hash -> new DefinitionKey(resolvedFileId.get(), table, hash)).
+            collect(Collectors.toList());
+        Map<DefinitionKey, CachedDefinition> definitions = cache.getAll(keys);
+        return keys.stream().
+            map(definitions::get).
+            filter(Objects::nonNull).
+            collect(Collectors.toList());
+    }
+
+    private static void checkHash(Long hash) {
+        if (hash == null || hash < 0 || hash > MAX_HASH) {
+            throw new IllegalArgumentException("Definition hashes must be unsigned 32-bit integers, but got " + hash);
+        }
+    }
+
+    private void checkTable(Long fileId, String table) {
+        if (!TABLE_NAME_PATTERN.matcher(table).matches()) {
+            throw new IllegalArgumentException("No definition table named " + table);
+        }
+
+        Set<String> tables = definitionTables.get(fileId);
+        if (tables == null) {
+            Optional<DefinitionIndex> index = indexStore.index(fileId);
+            Path contentPath = contentPath(fileId);
+            if (!index.isPresent() && !Files.exists(contentPath)) {
+                // Only exported tables can be read once the file is gone, and those are looked up by name
+                return;
+            }
+            tables = definitionTables.computeIfAbsent(fileId, id -> index.map(DefinitionIndex::tableNames).
+                orElseGet(() -> {
+                    try (ContentDataSourceRegistry.Lease lease = contentDataSources.leaseForLookups(contentPath)) {
+                        return WorldContentSchema.definitionTables(lease).keySet();
+                    }
+                }));
+        }
+        if (!tables.contains(table)) {
+            throw new IllegalArgumentException("No definition table named " + table);
+        }
+    }
+
+    private Optional<Long> resolveFileId(Long fileId) {
+        if (fileId != null) {
+            contentPath(fileId);
+            return Optional.of(fileId);
+        }
+
+        LatestFile latest = latestFile;
+        if (latest == null || System.nanoTime() - latest.getCheckedAtNanos() > LATEST_FILE_TTL_NANOS) {
+            Long latestFileId = metadataJdbcTemplate.queryForObject("SELECT max(fileId) FROM ContentFiles;",
+                Long.class);
+            latest = new LatestFile(latestFileId, System.nanoTime());
+            latestFile = latest;
+        }
+        return Optional.ofNullable(latest.getFileId());
+    }
+
+    private Path contentPath(Long fileId) {
+        return contentPaths.computeIfAbsent(fileId, id -> {
+            try {
+                String fileName = metadataJdbcTemplate.queryForObject(
+                    "SELECT fileName FROM ContentFiles WHERE fileId = ?;", new Object[]{id}, String.class);
+                return Paths.get(scratchDirectory).resolve(Paths.get(fileName).getFileName());
+            } catch (EmptyResultDataAccessException e) {
+                throw new IllegalArgumentException("No content file with ID " + id);
+            }
+        });
+    }
+
+    private Map<DefinitionKey, CachedDefinition> loadDefinitions(Long fileId, String table, List<DefinitionKey> keys) {
+        Map<DefinitionKey, CachedDefinition> definitions = new HashMap<>();
+        Optional<DefinitionIndex> index = indexStore.index(fileId);
+        if (index.isPresent()) {
+            for (DefinitionKey key : keys) {
+                int entry = index.get().find(table, key.getHash());
+                if (entry >= 0) {
+                    definitions.put(key, cachedDefinition(index.get().bytes(entry)));
+                }
+            }
+            return definitions;
+        }
+
+        Path contentPath = contentPath(fileId);
+        if (!Files.exists(contentPath)) {
+            for (DefinitionKey key : keys) {
+                contentService.exportedDefinition(table, fileId, key.getHash()).
+                    ifPresent(json -> definitions.put(key, cachedDefinition(json)));
+            }
+            return definitions;
+        }
+
+        try (ContentDataSourceRegistry.Lease lease = contentDataSources.leaseForLookups(contentPath)) {
+            for (int start = 0; start < keys.size(); start += QUERY_CHUNK_SIZE) {
+                List<DefinitionKey> chunk = keys.subList(start, Math.min(start + QUERY_CHUNK_SIZE, keys.size()));
+                Map<Integer, DefinitionKey> keysById = new HashMap<>();
+                chunk.forEach(key -> keysById.put((int) key.getHash(), key));
+
+                String query = "SELECT id, json FROM " + table + " WHERE id IN (" +
+                    String.join(", ", Collections.nCopies(keysById.size(), "?")) + ");";
+                lease.getJdbcTemplate().query(query, keysById.keySet().toArray(), rs -> {
+                    DefinitionKey key = keysById.get(rs.getInt("id"));
+                    definitions.put(key, cachedDefinition(rs.getBytes("json")));
+                });
+            }
+        }
+        return definitions;
+    }
+
+    private static CachedDefinition cachedDefinition(byte[] json) {
+        return new CachedDefinition(json, "\"" + DigestUtils.md5Hex(json) + "\"");
+    }
+
+    private class DefinitionLoader implements CacheLoader<DefinitionKey, CachedDefinition> {
+
+        @Override
+        public CachedDefinition load(DefinitionKey key) {
+            return loadAll(Collections.singletonList(key)).get(key);
+        }
+
+        @Override
+        public Map<DefinitionKey, CachedDefinition> loadAll(Iterable<? extends DefinitionKey> keys) {
+            Map<Long, Map<String, List<DefinitionKey>>> keysByFile = StreamSupport.stream(keys.spliterator(), false).
+                collect(Collectors.groupingBy(DefinitionKey::getFileId,
+                    Collectors.groupingBy(DefinitionKey::getTable, Collectors.toList())));
+
+            Map<DefinitionKey, CachedDefinition> definitions = new HashMap<>();
+            keysByFile.forEach((fileId, keysByTable) -> keysByTable.forEach(
+                (table, tableKeys) -> definitions.putAll(loadDefinitions(fileId, table, new ArrayList<>(tableKeys)))));
+            return definitions;
+        }
+    }
+
+    /**
+     * A definition's JSON, as the UTF-8 bytes it is stored with, so it can be written to a response without decoding.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class CachedDefinition {
+        private final byte[] json;
+        private final String eTag;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class DefinitionKey {
+        private final Long fileId;
+        private final String table;
+        private final long hash;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class LatestFile {
+        private final Long fileId;
+        private final long checkedAtNanos;
+    }
+}
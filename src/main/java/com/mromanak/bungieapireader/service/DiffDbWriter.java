@@ -0,0 +1,310 @@
+package com.mromanak.bungieapireader.service;
+
+import com.mromanak.bungieapireader.model.DiffChange;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLStateSQLExceptionTranslator;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk loads diff entries into the tables of a new diff DB as they are produced, committing every {@code chunkSize}
+ * rows so that only one chunk is ever held in memory. Each entry is routed to the diff table named by its
+ * {@code tableName}.
+ * <p>
+ * The DB is opened with journaling and syncing disabled, since {@link DbDiffService} deletes a failed or cancelled load
+ * rather than recovering it. Diff tables are created without a primary key; their indexes are built once by
+ * {@link #complete()}, after all rows are in, which also restores durable settings for readers of the finished file,
+ * along with the summary tables of a {@link DiffSummaryBuilder} that has seen every entry.
+ */
+class DiffDbWriter implements Closeable {
+
+    private static final SQLExceptionTranslator EXCEPTION_TRANSLATOR = new SQLStateSQLExceptionTranslator();
+
+    private static final String[] FLAG_COLUMNS = {"added", "updated", "removed", "redacted", "revealed"};
+    private static final String NEW_CONTENT = "new_content";
+    private static final String OLD_CONTENT = "old_content";
+    // World content stores definitions as compact JSON, so this matches every redacted one. It only decides which
+    // identical rows are copied as unchanged; rows whose JSON differs always have their headers read.
+    private static final String REDACTED_GLOB = "'*\"redacted\":true*'";
+
+    private final int chunkSize;
+    private final DiffSummaryBuilder summary;
+    private final Timer flushTimer;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>();
+
+    private int pendingRows = 0;
+
+    DiffDbWriter(Path dbPath, int chunkSize, int topPaths, Timer flushTimer) {
+        this.chunkSize = chunkSize;
+        this.summary = new DiffSummaryBuilder(topPaths);
+        this.flushTimer = flushTimer;
+
+        SQLiteDataSource dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + dbPath.toAbsolutePath());
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            execute(connection,
+                "PRAGMA journal_mode = OFF",
+                "PRAGMA synchronous = OFF",
+                "PRAGMA locking_mode = EXCLUSIVE",
+                "PRAGMA temp_store = MEMORY",
+                "PRAGMA cache_size = -65536");
+            connection.setAutoCommit(false);
+            this.connection = connection;
+        } catch (SQLException e) {
+            JdbcUtils.closeConnection(connection);
+            throw EXCEPTION_TRANSLATOR.translate("Opening diff DB " + dbPath, null, e);
+        }
+    }
+
+    void createTable(String tableName) {
+        String ddl = "CREATE TABLE " + tableName + " (id BIGINT, new_json TEXT, old_json TEXT, diff_json TEXT, added BOOLEAN, updated BOOLEAN, removed BOOLEAN, redacted BOOLEAN, revealed BOOLEAN)";
+        String insert = "INSERT INTO " + tableName + " (id, new_json, old_json, diff_json, added, updated, removed, redacted, revealed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try {
+            execute(connection, ddl);
+            connection.commit();
+            statements.put(tableName, connection.prepareStatement(insert));
+            summary.addTable(tableName);
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Creating diff table " + tableName, ddl, e);
+        }
+    }
+
+    void write(DbDiffEntry diffEntry) {
+        PreparedStatement statement = statements.get(diffEntry.getTableName());
+        if (statement == null) {
+            throw new IllegalStateException("No diff table named " + diffEntry.getTableName());
+        }
+
+        try {
+            statement.setLong(1, diffEntry.getId());
+            statement.setString(2, diffEntry.getNewJson());
+            statement.setString(3, diffEntry.getOldJson());
+            statement.setString(4, diffEntry.getDiffJson());
+            statement.setBoolean(5, diffEntry.isAdded());
+            statement.setBoolean(6, diffEntry.isUpdated());
+            statement.setBoolean(7, diffEntry.isDeleted());
+            statement.setBoolean(8, diffEntry.isRedacted());
+            statement.setBoolean(9, diffEntry.isRevealed());
+            statement.addBatch();
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Writing diff entry " + diffEntry.getId(), null, e);
+        }
+        summary.add(diffEntry);
+
+        if (++pendingRows >= chunkSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Attaches the two world content DBs being diffed to the diff DB's connection, so that {@link #copyClassified} can
+     * read them without their rows passing through Java.
+     */
+    void attach(Path newDbPath, Path oldDbPath) {
+        String sql = "ATTACH DATABASE ? AS " + NEW_CONTENT;
+        try {
+            flush();
+            connection.setAutoCommit(true);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setString(1, newDbPath.toAbsolutePath().toString());
+                statement.execute();
+            }
+            sql = "ATTACH DATABASE ? AS " + OLD_CONTENT;
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setString(1, oldDbPath.toAbsolutePath().toString());
+                statement.execute();
+            }
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Attaching world content DBs", sql, e);
+        }
+    }
+
+    void detach() {
+        String sql = null;
+        try {
+            flush();
+            connection.setAutoCommit(true);
+            sql = "DETACH DATABASE " + NEW_CONTENT;
+            execute(connection, sql);
+            sql = "DETACH DATABASE " + OLD_CONTENT;
+            execute(connection, sql);
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Detaching world content DBs", sql, e);
+        }
+    }
+
+    /**
+     * Copies the rows of {@code sourceTable} that were added, removed or left byte-for-byte identical between the
+     * attached DBs into {@code tableName}, counting them in the summary. Added and removed rows are also broken down by
+     * the facets in {@code facetPaths}, which maps each facet to its SQLite JSON path.
+     * <p>
+     * Rows in both DBs whose JSON differs, and identical rows that are redacted, are left for the caller to diff.
+     *
+     * @return the number of rows copied for each kind of change
+     */
+    Map<String, Long> copyClassified(String tableName, String sourceTable, boolean inNew, boolean inOld,
+        Map<String, String> facetPaths)
+    {
+        String newTable = NEW_CONTENT + "." + sourceTable;
+        String oldTable = OLD_CONTENT + "." + sourceTable;
+        String insert = "INSERT INTO " + tableName + " (id, new_json, old_json, diff_json, added, updated, removed, redacted, revealed) ";
+        String sql = null;
+        Map<String, Long> copied = new LinkedHashMap<>();
+        try {
+            if (inNew) {
+                sql = insert + "SELECT n.id & 4294967295, CAST(n.json AS TEXT), NULL, NULL, 1, 0, 0, 0, 0 FROM " + newTable + " n" +
+                    (inOld ? " WHERE NOT EXISTS (SELECT 1 FROM " + oldTable + " o WHERE o.id = n.id)" : "");
+                copied.put(DiffChange.ADDED.getColumn(), update(sql, tableName, DiffChange.ADDED.getColumn()));
+            }
+            if (inOld) {
+                sql = insert + "SELECT o.id & 4294967295, NULL, CAST(o.json AS TEXT), NULL, 0, 0, 1, 0, 0 FROM " + oldTable + " o" +
+                    (inNew ? " WHERE NOT EXISTS (SELECT 1 FROM " + newTable + " n WHERE n.id = o.id)" : "");
+                copied.put(DiffChange.REMOVED.getColumn(), update(sql, tableName, DiffChange.REMOVED.getColumn()));
+            }
+            sql = null;
+            countFacets(tableName, facetPaths);
+            if (inNew && inOld) {
+                sql = insert + "SELECT n.id & 4294967295, CAST(n.json AS TEXT), NULL, NULL, 0, 0, 0, 0, 0 FROM " + newTable + " n " +
+                    "JOIN " + oldTable + " o ON o.id = n.id WHERE n.json = o.json AND n.json NOT GLOB " + REDACTED_GLOB;
+                copied.put(DiffSummaryBuilder.UNCHANGED, update(sql, tableName, DiffSummaryBuilder.UNCHANGED));
+            }
+            connection.commit();
+            return copied;
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Copying classified rows of " + sourceTable, sql, e);
+        }
+    }
+
+    private long update(String sql, String tableName, String change) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            long count = statement.executeUpdate(sql);
+            summary.addCount(tableName, change, count);
+            return count;
+        }
+    }
+
+    /**
+     * Tallies the facets of the added and removed rows of a table, which must be the only rows it holds yet. Values
+     * are rendered as {@code JsonNode.asText()} would, and nulls, objects and arrays are skipped, so the tallies match
+     * those of entries built in Java.
+     */
+    private void countFacets(String tableName, Map<String, String> facetPaths) throws SQLException {
+        if (facetPaths.isEmpty()) {
+            return;
+        }
+        List<String> facets = new ArrayList<>(facetPaths.keySet());
+        StringBuilder query = new StringBuilder("SELECT added");
+        for (int i = 1; i <= facets.size(); i++) {
+            query.append(", CASE json_type(json, ?").append(i).append(") ").
+                append("WHEN 'true' THEN 'true' WHEN 'false' THEN 'false' ").
+                append("WHEN 'null' THEN NULL WHEN 'object' THEN NULL WHEN 'array' THEN NULL ").
+                append("ELSE CAST(json_extract(json, ?").append(i).append(") AS TEXT) END");
+        }
+        query.append(", count(*) FROM (SELECT added, coalesce(new_json, old_json) AS json FROM ").append(tableName).
+            append(") GROUP BY 1");
+        for (int i = 1; i <= facets.size(); i++) {
+            query.append(", ").append(i + 1);
+        }
+
+        String sql = query.toString();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < facets.size(); i++) {
+                statement.setString(i + 1, facetPaths.get(facets.get(i)));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    String change = rs.getBoolean(1) ? DiffChange.ADDED.getColumn() : DiffChange.REMOVED.getColumn();
+                    long count = rs.getLong(facets.size() + 2);
+                    for (int i = 0; i < facets.size(); i++) {
+                        String value = rs.getString(i + 2);
+                        if (value != null) {
+                            summary.addFacetCount(tableName, facets.get(i), value, change, count);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    void flush() {
+        if (pendingRows == 0) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            for (PreparedStatement statement : statements.values()) {
+                statement.executeBatch();
+            }
+            connection.commit();
+            pendingRows = 0;
+            flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Flushing diff entries", null, e);
+        }
+    }
+
+    void complete() {
+        flush();
+        String sql = null;
+        try {
+            for (String tableName : statements.keySet()) {
+                sql = "CREATE UNIQUE INDEX " + tableName + "_id ON " + tableName + " (id)";
+                execute(connection, sql);
+                for (String flagColumn : FLAG_COLUMNS) {
+                    sql = "CREATE INDEX " + tableName + "_" + flagColumn + " ON " + tableName + " (id) WHERE " + flagColumn;
+                    execute(connection, sql);
+                }
+            }
+            sql = null;
+            summary.write(connection);
+            connection.commit();
+
+            connection.setAutoCommit(true);
+            sql = null;
+            execute(connection,
+                "PRAGMA journal_mode = DELETE",
+                "PRAGMA synchronous = FULL",
+                "PRAGMA locking_mode = NORMAL",
+                "ANALYZE");
+        } catch (SQLException e) {
+            throw EXCEPTION_TRANSLATOR.translate("Indexing diff DB", sql, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            statements.values().forEach(JdbcUtils::closeStatement);
+            JdbcUtils.closeConnection(connection);
+        }
+    }
+
+    private static void execute(Connection connection, String... sqls) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : sqls) {
+                statement.execute(sql);
+            }
+        }
+    }
+}
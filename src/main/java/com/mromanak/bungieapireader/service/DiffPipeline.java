@@ -0,0 +1,162 @@
+package com.mromanak.bungieapireader.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Computes diff entries on a shared worker pool and hands them to a single writer thread that owns the diff DB. At most
+ * {@code queueDepth} entries are in flight (queued, being computed, or waiting to be written) at any time, so a fast
+ * reader blocks instead of buffering the whole table.
+ */
+class DiffPipeline implements AutoCloseable {
+
+    private static final DbDiffEntry END_OF_INPUT = new DbDiffEntry();
+
+    private final DiffDbWriter writer;
+    private final Executor workerPool;
+    private final int queueDepth;
+    private final int drainSize;
+    private final Semaphore permits;
+    private final BlockingQueue<DbDiffEntry> results = new LinkedBlockingQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final Thread writerThread;
+
+    private volatile boolean aborted = false;
+    private boolean finished = false;
+
+    DiffPipeline(DiffDbWriter writer, Executor workerPool, int queueDepth, int drainSize) {
+        this.writer = writer;
+        this.workerPool = workerPool;
+        this.queueDepth = queueDepth;
+        this.drainSize = drainSize;
+        this.permits = new Semaphore(queueDepth);
+        this.writerThread = new Thread(this::runWriter, "diff-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    void submit(Supplier<DbDiffEntry> task) throws InterruptedException {
+        if (aborted) {
+            throw new CancellationException("Diff pipeline has been closed");
+        }
+        rethrowFailure();
+        permits.acquire();
+        try {
+            workerPool.execute(() -> {
+                if (aborted || failure.get() != null) {
+                    permits.release();
+                    return;
+                }
+                try {
+                    results.add(task.get());
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of entries that have been submitted but not yet written.
+     */
+    int inFlight() {
+        return queueDepth - permits.availablePermits();
+    }
+
+    int awaitingWrite() {
+        return results.size();
+    }
+
+    void finish() throws InterruptedException {
+        permits.acquire(queueDepth);
+        permits.release(queueDepth);
+        results.add(END_OF_INPUT);
+        writerThread.join();
+        finished = true;
+        rethrowFailure();
+    }
+
+    /**
+     * Aborts the pipeline unless it has finished, and waits for the writer thread to stop so that the caller can delete
+     * the diff DB. The writer skips the remaining entries once aborted, so the wait is not cut short by an interrupt;
+     * the interrupt flag is restored afterwards instead.
+     */
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        aborted = true;
+        results.add(END_OF_INPUT);
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        List<DbDiffEntry> batch = new ArrayList<>(drainSize);
+        boolean endOfInput = false;
+        while (!endOfInput) {
+            try {
+                batch.add(results.take());
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, e);
+                aborted = true;
+                return;
+            }
+            results.drainTo(batch, drainSize - 1);
+
+            int written = 0;
+            for (DbDiffEntry diffEntry : batch) {
+                if (diffEntry == END_OF_INPUT) {
+                    endOfInput = true;
+                    continue;
+                }
+                written++;
+                if (aborted || failure.get() != null) {
+                    continue;
+                }
+                try {
+                    writer.write(diffEntry);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+            permits.release(written);
+            batch.clear();
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException("Diff pipeline failed: " + t.getMessage(), t);
+    }
+}
@@ -0,0 +1,193 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mromanak.bungieapireader.model.DiffChange;
+import com.mromanak.bungieapireader.model.DiffPage;
+import com.mromanak.bungieapireader.model.DiffPathCount;
+import com.mromanak.bungieapireader.model.DiffRow;
+import com.mromanak.bungieapireader.model.DiffSummary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the entries of diff DBs over pooled read-only connections. Entries are returned in {@code id} order and paged
+ * by keyset, so every page, however deep, is an index range scan: the partial index of the requested change type, or
+ * the unique {@code id} index when all entries are read.
+ */
+@Service
+public class DiffQueryService {
+
+    public static final int MAX_PAGE_SIZE = 5000;
+
+    private static final Pattern DIFF_TABLE_PATTERN = Pattern.compile("Destiny\\w+Diff");
+    private static final String COLUMNS = "id, new_json, old_json, diff_json, added, updated, removed, redacted, revealed";
+    private static final RowMapper<DiffRow> DIFF_ROW_MAPPER = (rs, i) -> {
+        DiffRow row = new DiffRow();
+        row.setId(rs.getLong("id"));
+        row.setChange("unchanged");
+        for (DiffChange change : DiffChange.values()) {
+            if (rs.getBoolean(change.getColumn())) {
+                row.setChange(change.getColumn());
+            }
+        }
+        row.setNewJson(rs.getString("new_json"));
+        row.setOldJson(rs.getString("old_json"));
+        row.setDiffJson(rs.getString("diff_json"));
+        return row;
+    };
+
+    private final ContentDataSourceRegistry dataSources;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter rowWriter;
+
+    @Autowired
+    public DiffQueryService(ContentDataSourceRegistry dataSources, ObjectMapper objectMapper) {
+        this.dataSources = dataSources;
+        this.objectMapper = objectMapper;
+        this.rowWriter = objectMapper.writerFor(DiffRow.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Checks that a diff DB exists and has a diff table named {@code table}.
+     *
+     * @throws IllegalArgumentException if either is missing
+     */
+    public void checkTable(Path diffDbPath, String table) {
+        if (!Files.isRegularFile(diffDbPath)) {
+            throw new IllegalArgumentException("No diff DB at " + diffDbPath.toAbsolutePath());
+        }
+        if (!DIFF_TABLE_PATTERN.matcher(table).matches()) {
+            throw new IllegalArgumentException("No diff table named " + table);
+        }
+        try (ContentDataSourceRegistry.Lease lease = dataSources.leaseForLookups(diffDbPath)) {
+            Boolean exists = lease.getJdbcTemplate().queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?);",
+                new Object[]{table}, Boolean.class);
+            if (!exists) {
+                throw new IllegalArgumentException("No diff table named " + table);
+            }
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} entries with an {@code id} greater than {@code after}, optionally only those with the
+     * given change.
+     */
+    public DiffPage page(Path diffDbPath, String table, DiffChange change, long after, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        checkTable(diffDbPath, table);
+
+        List<DiffRow> entries;
+        try (ContentDataSourceRegistry.Lease lease = dataSources.leaseForLookups(diffDbPath)) {
+            entries = lease.getJdbcTemplate().query(query(table, change) + " LIMIT ?;",
+                new Object[]{after, limit}, DIFF_ROW_MAPPER);
+        }
+
+        DiffPage page = new DiffPage();
+        page.setTable(table);
+        page.setChange(change == null ? null : change.getColumn());
+        page.setEntries(entries);
+        page.setNextAfter(entries.size() < limit ? null : entries.get(entries.size() - 1).getId());
+        return page;
+    }
+
+    /**
+     * Writes every entry with an {@code id} greater than {@code after} to {@code outputStream} as newline-delimited
+     * JSON, one row at a time, without holding the result set in memory.
+     */
+    public void stream(Path diffDbPath, String table, DiffChange change, long after, OutputStream outputStream)
+        throws IOException
+    {
+        checkTable(diffDbPath, table);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.setRootValueSeparator(null);
+        try (ContentDataSourceRegistry.Lease lease = dataSources.leaseForLookups(diffDbPath)) {
+            lease.getJdbcTemplate().query(query(table, change) + ";", new Object[]{after}, rs -> {
+                try {
+                    rowWriter.writeValue(generator, DIFF_ROW_MAPPER.mapRow(rs, 0));
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.flush();
+    }
+
+    /**
+     * Returns the summary the diff engine recorded for a diff table, or an empty {@code Optional} if the diff DB
+     * predates summary tables.
+     */
+    public Optional<DiffSummary> summary(Path diffDbPath, String table) {
+        checkTable(diffDbPath, table);
+        try (ContentDataSourceRegistry.Lease lease = dataSources.leaseForLookups(diffDbPath)) {
+            JdbcTemplate jdbcTemplate = lease.getJdbcTemplate();
+            Boolean summarized = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'DiffSummary');",
+                Boolean.class);
+            if (!summarized) {
+                return Optional.empty();
+            }
+
+            Map<String, Long> counts = new LinkedHashMap<>();
+            jdbcTemplate.query("SELECT change, count FROM DiffSummary WHERE tableName = ? ORDER BY change;",
+                new Object[]{table}, rs -> {
+                    counts.put(rs.getString("change"), rs.getLong("count"));
+                });
+
+            Map<String, Map<String, Map<String, Long>>> facets = new TreeMap<>();
+            jdbcTemplate.query("SELECT facet, value, change, count FROM DiffFacets WHERE tableName = ?;",
+                new Object[]{table}, rs -> {
+                    facets.computeIfAbsent(rs.getString("facet"), f -> new TreeMap<>()).
+                        computeIfAbsent(rs.getString("value"), v -> new TreeMap<>()).
+                        put(rs.getString("change"), rs.getLong("count"));
+                });
+
+            List<DiffPathCount> topPaths = jdbcTemplate.query(
+                "SELECT path, count FROM DiffPaths WHERE tableName = ? ORDER BY rank;", new Object[]{table},
+                (rs, i) -> {
+                    DiffPathCount pathCount = new DiffPathCount();
+                    pathCount.setPath(rs.getString("path"));
+                    pathCount.setCount(rs.getLong("count"));
+                    return pathCount;
+                });
+
+            DiffSummary summary = new DiffSummary();
+            summary.setTable(table);
+            summary.setCounts(counts);
+            summary.setFacets(facets);
+            summary.setTopPaths(topPaths);
+            return Optional.of(summary);
+        }
+    }
+
+    /**
+     * The bare flag column in the WHERE clause is what lets SQLite pick the partial index {@link DiffDbWriter} builds
+     * for that change type.
+     */
+    private static String query(String table, DiffChange change) {
+        String where = change == null ? "id > ?" : change.getColumn() + " AND id > ?";
+        return "SELECT " + COLUMNS + " FROM " + table + " WHERE " + where + " ORDER BY id";
+    }
+}
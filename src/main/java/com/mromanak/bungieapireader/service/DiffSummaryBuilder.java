@@ -0,0 +1,147 @@
+package com.mromanak.bungieapireader.service;
+
+import com.mromanak.bungieapireader.model.DiffChange;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Tallies diff entries as they are written and stores the tallies in summary tables of the diff DB, so dashboards can
+ * read counts per change, per facet value and per changed JSON path without scanning or re-parsing the diff tables.
+ * <p>
+ * Only entries that changed are broken down by facet; unchanged entries are just counted.
+ */
+class DiffSummaryBuilder {
+
+    static final String UNCHANGED = "unchanged";
+
+    private static final String[] DDL = {
+        "CREATE TABLE DiffSummary (tableName TEXT, change TEXT, count INTEGER, PRIMARY KEY (tableName, change))",
+        "CREATE TABLE DiffFacets (tableName TEXT, facet TEXT, value TEXT, change TEXT, count INTEGER, PRIMARY KEY (tableName, facet, value, change))",
+        "CREATE TABLE DiffPaths (tableName TEXT, rank INTEGER, path TEXT, count INTEGER, PRIMARY KEY (tableName, rank))"
+    };
+
+    private final int topPaths;
+    private final Map<CountKey, Long> changeCounts = new HashMap<>();
+    private final Map<FacetKey, Long> facetCounts = new HashMap<>();
+    private final Map<String, Map<String, Long>> pathCounts = new HashMap<>();
+
+    DiffSummaryBuilder(int topPaths) {
+        this.topPaths = topPaths;
+    }
+
+    static String changeOf(DbDiffEntry entry) {
+        DiffChange change = entry.isAdded() ? DiffChange.ADDED :
+            entry.isUpdated() ? DiffChange.UPDATED :
+            entry.isDeleted() ? DiffChange.REMOVED :
+            entry.isRedacted() ? DiffChange.REDACTED :
+            entry.isRevealed() ? DiffChange.REVEALED : null;
+        return change == null ? UNCHANGED : change.getColumn();
+    }
+
+    void addTable(String tableName) {
+        pathCounts.computeIfAbsent(tableName, t -> new HashMap<>());
+    }
+
+    void add(DbDiffEntry entry) {
+        String change = changeOf(entry);
+        changeCounts.merge(new CountKey(entry.getTableName(), change), 1L, Long::sum);
+        if (entry.getFacets() != null) {
+            entry.getFacets().forEach((facet, value) ->
+                facetCounts.merge(new FacetKey(entry.getTableName(), facet, value, change), 1L, Long::sum));
+        }
+        if (entry.getChangedPaths() != null) {
+            Map<String, Long> tablePathCounts = pathCounts.computeIfAbsent(entry.getTableName(), t -> new HashMap<>());
+            entry.getChangedPaths().forEach(path -> tablePathCounts.merge(path, 1L, Long::sum));
+        }
+    }
+
+    /**
+     * Counts entries that were classified in bulk, without being built one by one.
+     */
+    void addCount(String tableName, String change, long count) {
+        if (count > 0) {
+            changeCounts.merge(new CountKey(tableName, change), count, Long::sum);
+        }
+    }
+
+    void addFacetCount(String tableName, String facet, String value, String change, long count) {
+        facetCounts.merge(new FacetKey(tableName, facet, value, change), count, Long::sum);
+    }
+
+    void write(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String ddl : DDL) {
+                statement.execute(ddl);
+            }
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+            "INSERT INTO DiffSummary (tableName, change, count) VALUES (?, ?, ?)")) {
+            for (Map.Entry<CountKey, Long> count : changeCounts.entrySet()) {
+                ps.setString(1, count.getKey().getTableName());
+                ps.setString(2, count.getKey().getChange());
+                ps.setLong(3, count.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+            "INSERT INTO DiffFacets (tableName, facet, value, change, count) VALUES (?, ?, ?, ?, ?)")) {
+            for (Map.Entry<FacetKey, Long> count : facetCounts.entrySet()) {
+                ps.setString(1, count.getKey().getTableName());
+                ps.setString(2, count.getKey().getFacet());
+                ps.setString(3, count.getKey().getValue());
+                ps.setString(4, count.getKey().getChange());
+                ps.setLong(5, count.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        try (PreparedStatement ps = connection.prepareStatement(
+            "INSERT INTO DiffPaths (tableName, rank, path, count) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<String, Map<String, Long>> table : pathCounts.entrySet()) {
+                List<Map.Entry<String, Long>> top = table.getValue().entrySet().stream().
+                    sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()).
+                        thenComparing(Map.Entry.comparingByKey())).
+                    limit(topPaths).
+                    collect(Collectors.toList());
+                for (int rank = 0; rank < top.size(); rank++) {
+                    ps.setString(1, table.getKey());
+                    ps.setInt(2, rank + 1);
+                    ps.setString(3, top.get(rank).getKey());
+                    ps.setLong(4, top.get(rank).getValue());
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class CountKey {
+        private final String tableName;
+        private final String change;
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class FacetKey {
+        private final String tableName;
+        private final String facet;
+        private final String value;
+        private final String change;
+    }
+}
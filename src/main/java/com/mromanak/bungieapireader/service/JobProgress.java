@@ -0,0 +1,27 @@
+package com.mromanak.bungieapireader.service;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Receives progress from a long-running export or diff. Both methods may be called from any thread, and may throw
+ * {@link CancellationException} to stop the work once the job it belongs to has been cancelled.
+ */
+public interface JobProgress {
+
+    JobProgress NONE = new JobProgress() {
+        @Override
+        public void phase(String phase, long rowsTotal) {
+        }
+
+        @Override
+        public void rowsProcessed(long rows) {
+        }
+    };
+
+    /**
+     * Starts a new phase of the work, resetting the row count. {@code rowsTotal} is negative if it isn't known.
+     */
+    void phase(String phase, long rowsTotal);
+
+    void rowsProcessed(long rows);
+}
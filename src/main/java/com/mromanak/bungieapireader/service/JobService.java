@@ -0,0 +1,206 @@
+package com.mromanak.bungieapireader.service;
+
+import com.mromanak.bungieapireader.model.JobState;
+import com.mromanak.bungieapireader.model.JobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Runs exports and diffs in the background on a bounded pool, tracking their progress. Finished jobs are kept, with
+ * their results, until {@code jobs.retained} newer jobs have finished.
+ */
+@Service
+public class JobService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JobService.class);
+
+    private final ThreadPoolExecutor executor;
+    private final int retainedJobs;
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Deque<String> finishedJobIds = new ArrayDeque<>();
+
+    public JobService(@Value("${jobs.workers:2}") int workers, @Value("${jobs.queueCapacity:16}") int queueCapacity,
+        @Value("${jobs.retained:100}") int retainedJobs)
+    {
+        this.retainedJobs = retainedJobs;
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("job-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Queues {@code task} to run in the background.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public JobStatus submit(String type, JobTask<?> task) {
+        Job job = new Job(UUID.randomUUID().toString(), type);
+        FutureTask<Void> future = new FutureTask<>(() -> run(job, task), null);
+        job.future = future;
+        jobs.put(job.id, job);
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            throw e;
+        }
+        return job.toStatus();
+    }
+
+    public Optional<JobStatus> status(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(Job::toStatus);
+    }
+
+    public List<JobStatus> statuses() {
+        return jobs.values().stream().
+            map(Job::toStatus).
+            sorted(Comparator.comparing(JobStatus::getSubmittedAt)).
+            collect(Collectors.toList());
+    }
+
+    /**
+     * Cancels a job. A queued job never starts; a running one is interrupted, and stops at its next progress report.
+     */
+    public Optional<JobStatus> cancel(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        if (job.state.compareAndSet(JobState.QUEUED, JobState.CANCELLED)) {
+            job.finishedAt = Instant.now();
+            job.future.cancel(false);
+            retire(job);
+        } else if (job.state.compareAndSet(JobState.RUNNING, JobState.CANCELLED)) {
+            job.future.cancel(true);
+        }
+        return Optional.of(job.toStatus());
+    }
+
+    private void run(Job job, JobTask<?> task) {
+        if (!job.state.compareAndSet(JobState.QUEUED, JobState.RUNNING)) {
+            return;
+        }
+
+        job.startedAt = Instant.now();
+        try {
+            Object result = task.run(job);
+            job.result = result;
+            if (!job.state.compareAndSet(JobState.RUNNING, JobState.SUCCEEDED)) {
+                // Cancelled after the task returned; a cancelled job has no result
+                job.result = null;
+            }
+        } catch (Exception e) {
+            if (!job.state.compareAndSet(JobState.RUNNING, JobState.FAILED)) {
+                LOGGER.info("Job {} ({}) was cancelled", job.id, job.type);
+            } else {
+                LOGGER.error("Job {} ({}) failed: {}", job.id, job.type, e.getMessage(), e);
+                job.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+        } finally {
+            job.finishedAt = Instant.now();
+            retire(job);
+        }
+    }
+
+    private void retire(Job job) {
+        synchronized (finishedJobIds) {
+            finishedJobIds.add(job.id);
+            while (finishedJobIds.size() > retainedJobs) {
+                jobs.remove(finishedJobIds.poll());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface JobTask<T> {
+        T run(JobProgress progress) throws Exception;
+    }
+
+    private static class Job implements JobProgress {
+        private final String id;
+        private final String type;
+        private final Instant submittedAt = Instant.now();
+        private final AtomicReference<JobState> state = new AtomicReference<>(JobState.QUEUED);
+        private final AtomicLong rowsProcessed = new AtomicLong();
+        private volatile Future<?> future;
+        private volatile String phase;
+        private volatile long rowsTotal = -1;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile String error;
+        private volatile Object result;
+
+        private Job(String id, String type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        @Override
+        public void phase(String phase, long rowsTotal) {
+            checkCancelled();
+            this.phase = phase;
+            this.rowsTotal = rowsTotal;
+            rowsProcessed.set(0);
+        }
+
+        @Override
+        public void rowsProcessed(long rows) {
+            checkCancelled();
+            rowsProcessed.addAndGet(rows);
+        }
+
+        private void checkCancelled() {
+            if (state.get() == JobState.CANCELLED) {
+                throw new CancellationException("Job " + id + " was cancelled");
+            }
+        }
+
+        private JobStatus toStatus() {
+            JobStatus status = new JobStatus();
+            status.setJobId(id);
+            status.setType(type);
+            status.setState(state.get());
+            status.setPhase(phase);
+            status.setRowsProcessed(rowsProcessed.get());
+            status.setRowsTotal(rowsTotal < 0 ? null : rowsTotal);
+            status.setSubmittedAt(submittedAt);
+            status.setStartedAt(startedAt);
+            status.setFinishedAt(finishedAt);
+            status.setError(error);
+            status.setResult(result);
+            return status;
+        }
+    }
+}
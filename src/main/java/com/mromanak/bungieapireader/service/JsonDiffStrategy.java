@@ -0,0 +1,32 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.fge.jsonpatch.diff.JsonDiff;
+
+/**
+ * Computes the RFC 6902 JSON patch that turns one document into another. Different strategies may produce different
+ * patches for the same pair of documents, but applying any of them to {@code source} must yield {@code target}.
+ */
+interface JsonDiffStrategy {
+
+    String JSON_PATCH = "json-patch";
+    String KEYED = "keyed";
+
+    JsonNode diff(JsonNode source, JsonNode target);
+
+    /**
+     * Returns the strategy configured as {@code diff.engine}: {@value #JSON_PATCH} for json-patch's general purpose
+     * diff, or {@value #KEYED} for {@link KeyedJsonDiff}.
+     */
+    static JsonDiffStrategy named(String name) {
+        switch (name) {
+            case JSON_PATCH:
+                return JsonDiff::asJson;
+            case KEYED:
+                return new KeyedJsonDiff();
+            default:
+                throw new IllegalArgumentException(
+                    "Unknown diff engine " + name + "; expected " + JSON_PATCH + " or " + KEYED);
+        }
+    }
+}
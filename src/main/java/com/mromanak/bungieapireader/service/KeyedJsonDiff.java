@@ -0,0 +1,211 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Diffs definition JSON in a single walk over both documents.
+ * <p>
+ * Objects are compared field by field. Arrays of objects that all carry a unique identity key, such as the
+ * {@code statHash} of a stat or the {@code plugItemHash} of a socket entry, are matched by that key instead of by
+ * position, so reordering them costs one {@code move} per displaced element rather than a {@code replace} for every
+ * field that shifted. Other arrays are compared position by position once their common prefix and suffix are trimmed,
+ * which turns a single insertion or removal anywhere into a single operation.
+ * <p>
+ * Array elements are always addressed by index (never {@code -}), and each operation applies to the document left by
+ * the ones before it.
+ */
+final class KeyedJsonDiff implements JsonDiffStrategy {
+
+    private static final String[] IDENTITY_KEYS = {
+        "hash", "statHash", "statTypeHash", "plugItemHash", "perkHash", "itemHash", "objectiveHash"
+    };
+
+    @Override
+    public JsonNode diff(JsonNode source, JsonNode target) {
+        ArrayNode patch = JsonNodeFactory.instance.arrayNode();
+        diff(patch, new StringBuilder(), source, target);
+        return patch;
+    }
+
+    private void diff(ArrayNode patch, StringBuilder path, JsonNode source, JsonNode target) {
+        if (source.getNodeType() != target.getNodeType()) {
+            operation(patch, "replace", path).set("value", target);
+        } else if (source.isObject()) {
+            diffObjects(patch, path, source, target);
+        } else if (source.isArray()) {
+            String identityKey = identityKey(source, target);
+            if (identityKey != null) {
+                diffKeyedArrays(patch, path, source, target, identityKey);
+            } else {
+                diffArrays(patch, path, source, target);
+            }
+        } else if (!source.equals(target)) {
+            operation(patch, "replace", path).set("value", target);
+        }
+    }
+
+    private void diffObjects(ArrayNode patch, StringBuilder path, JsonNode source, JsonNode target) {
+        int pathLength = path.length();
+        Iterator<Map.Entry<String, JsonNode>> sourceFields = source.fields();
+        while (sourceFields.hasNext()) {
+            Map.Entry<String, JsonNode> field = sourceFields.next();
+            JsonNode targetValue = target.get(field.getKey());
+            appendField(path, field.getKey());
+            if (targetValue == null) {
+                operation(patch, "remove", path);
+            } else {
+                diff(patch, path, field.getValue(), targetValue);
+            }
+            path.setLength(pathLength);
+        }
+
+        Iterator<Map.Entry<String, JsonNode>> targetFields = target.fields();
+        while (targetFields.hasNext()) {
+            Map.Entry<String, JsonNode> field = targetFields.next();
+            if (!source.has(field.getKey())) {
+                appendField(path, field.getKey());
+                operation(patch, "add", path).set("value", field.getValue());
+                path.setLength(pathLength);
+            }
+        }
+    }
+
+    /**
+     * Removes the source elements whose keys the target lacks, then walks the target in order, moving each surviving
+     * element into place (and diffing it) or adding the new ones.
+     */
+    private void diffKeyedArrays(ArrayNode patch, StringBuilder path, JsonNode source, JsonNode target,
+        String identityKey)
+    {
+        Set<JsonNode> targetKeys = new HashSet<>();
+        target.forEach(element -> targetKeys.add(element.get(identityKey)));
+
+        int pathLength = path.length();
+        List<JsonNode> elements = new ArrayList<>(source.size());
+        source.forEach(elements::add);
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            if (!targetKeys.contains(elements.get(i).get(identityKey))) {
+                operation(patch, "remove", path.append('/').append(i));
+                path.setLength(pathLength);
+                elements.remove(i);
+            }
+        }
+
+        for (int i = 0; i < target.size(); i++) {
+            JsonNode targetElement = target.get(i);
+            int position = indexOf(elements, identityKey, targetElement.get(identityKey), i);
+            path.append('/').append(i);
+            if (position < 0) {
+                operation(patch, "add", path).set("value", targetElement);
+                elements.add(i, targetElement);
+            } else {
+                if (position != i) {
+                    ObjectNode move = operation(patch, "move", path);
+                    move.put("from", path.substring(0, pathLength) + "/" + position);
+                    elements.add(i, elements.remove(position));
+                }
+                diff(patch, path, elements.get(i), targetElement);
+            }
+            path.setLength(pathLength);
+        }
+    }
+
+    private void diffArrays(ArrayNode patch, StringBuilder path, JsonNode source, JsonNode target) {
+        int sourceSize = source.size();
+        int targetSize = target.size();
+        int minSize = Math.min(sourceSize, targetSize);
+        int prefix = 0;
+        while (prefix < minSize && source.get(prefix).equals(target.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < minSize - prefix &&
+            source.get(sourceSize - 1 - suffix).equals(target.get(targetSize - 1 - suffix))) {
+            suffix++;
+        }
+        int sourceEnd = sourceSize - suffix;
+        int targetEnd = targetSize - suffix;
+        int common = Math.min(sourceEnd, targetEnd) - prefix;
+
+        int pathLength = path.length();
+        for (int i = prefix; i < prefix + common; i++) {
+            diff(patch, path.append('/').append(i), source.get(i), target.get(i));
+            path.setLength(pathLength);
+        }
+        for (int i = sourceEnd - 1; i >= prefix + common; i--) {
+            operation(patch, "remove", path.append('/').append(i));
+            path.setLength(pathLength);
+        }
+        for (int i = prefix + common; i < targetEnd; i++) {
+            operation(patch, "add", path.append('/').append(i)).set("value", target.get(i));
+            path.setLength(pathLength);
+        }
+    }
+
+    /**
+     * Returns the first identity key that every element of both arrays has, with a distinct scalar value per element
+     * within each array, or null if there is none.
+     */
+    private static String identityKey(JsonNode source, JsonNode target) {
+        if (source.size() == 0 || target.size() == 0 || !source.get(0).isObject()) {
+            return null;
+        }
+        for (String identityKey : IDENTITY_KEYS) {
+            JsonNode firstKey = source.get(0).get(identityKey);
+            if (firstKey != null && firstKey.isValueNode() && isUniqueKey(source, identityKey) &&
+                isUniqueKey(target, identityKey)) {
+                return identityKey;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isUniqueKey(JsonNode array, String identityKey) {
+        Set<JsonNode> keys = new HashSet<>();
+        for (JsonNode element : array) {
+            JsonNode key = element.get(identityKey);
+            if (key == null || !key.isValueNode() || key.isNull() || !keys.add(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(List<JsonNode> elements, String identityKey, JsonNode key, int from) {
+        for (int i = from; i < elements.size(); i++) {
+            if (key.equals(elements.get(i).get(identityKey))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ObjectNode operation(ArrayNode patch, String op, CharSequence path) {
+        ObjectNode operation = patch.addObject();
+        operation.put("op", op);
+        operation.put("path", path.toString());
+        return operation;
+    }
+
+    /**
+     * Appends a JSON pointer token for {@code name}, escaping {@code ~} and {@code /} as RFC 6901 requires.
+     */
+    private static void appendField(StringBuilder path, String name) {
+        path.append('/');
+        if (name.indexOf('~') < 0 && name.indexOf('/') < 0) {
+            path.append(name);
+        } else {
+            path.append(name.replace("~", "~0").replace("/", "~1"));
+        }
+    }
+}
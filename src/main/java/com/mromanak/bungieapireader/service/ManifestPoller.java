@@ -0,0 +1,35 @@
+package com.mromanak.bungieapireader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the cached manifest fresh by revalidating it on a fixed delay, so version changes are noticed even when nobody
+ * is asking for the manifest.
+ */
+@Component
+@ConditionalOnProperty(name = "manifest.poll.enabled", havingValue = "true")
+public class ManifestPoller {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManifestPoller.class);
+
+    private final PublicApiService publicApiService;
+
+    @Autowired
+    public ManifestPoller(PublicApiService publicApiService) {
+        this.publicApiService = publicApiService;
+    }
+
+    @Scheduled(fixedDelayString = "${manifest.poll.intervalMillis:600000}")
+    public void poll() {
+        try {
+            publicApiService.refreshManifest();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to poll the manifest", e);
+        }
+    }
+}
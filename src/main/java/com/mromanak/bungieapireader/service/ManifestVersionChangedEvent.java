@@ -0,0 +1,27 @@
+package com.mromanak.bungieapireader.service;
+
+import com.mromanak.bungieapireader.model.DestinyManifest;
+import lombok.Getter;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when a refresh of the cached manifest finds a version other than the one it replaced.
+ */
+@Getter
+public class ManifestVersionChangedEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String previousVersion;
+    private final String version;
+    private final DestinyManifest manifest;
+
+    public ManifestVersionChangedEvent(Object source, String previousVersion, String version,
+        DestinyManifest manifest)
+    {
+        super(source);
+        this.previousVersion = previousVersion;
+        this.version = version;
+        this.manifest = manifest;
+    }
+}
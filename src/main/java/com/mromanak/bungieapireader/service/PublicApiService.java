@@ -2,54 +2,220 @@ package com.mromanak.bungieapireader.service;
 
 import com.mromanak.bungieapireader.model.BungieResponseWrapper;
 import com.mromanak.bungieapireader.model.DestinyManifest;
+import com.mromanak.bungieapireader.util.SingleFlight;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.core.io.Resource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 import static com.mromanak.bungieapireader.util.TypeUtils.bungieResponseFor;
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.singletonList;
 import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpStatus.NOT_MODIFIED;
+import static org.springframework.http.HttpStatus.PARTIAL_CONTENT;
+import static org.springframework.http.HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
 
 @Service
 public class PublicApiService extends AbstractBungieApiService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(PublicApiService.class);
     private static final String MANIFEST_PATH = "/Platform/Destiny2/Manifest/";
+    private static final String CONTENT_MD5 = "Content-MD5";
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
 
     @Value("${scratchDirectory}")
     private String scratchDirectory;
 
+    @Value("${download.maxAttempts:5}")
+    private int downloadMaxAttempts;
+
+    @Value("${download.retryDelayMillis:2000}")
+    private long downloadRetryDelayMillis;
+
+    @Value("${manifest.maxAgeSeconds:60}")
+    private long manifestMaxAgeSeconds;
+
     private final RestTemplate restTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final AtomicReference<CachedManifest> cachedManifest = new AtomicReference<>();
+    private final AtomicBoolean manifestRefreshing = new AtomicBoolean(false);
+    private final ExecutorService manifestRefreshExecutor;
+    private final SingleFlight<String, Path> downloads = new SingleFlight<>();
+    private final Timer transferTimer;
+    private final Timer extractTimer;
+    private final DistributionSummary transferBytes;
+    private final DistributionSummary extractBytes;
 
-    public PublicApiService(RestTemplate genericRestTemplate) {
+    public PublicApiService(RestTemplate genericRestTemplate, ApplicationEventPublisher eventPublisher,
+        MeterRegistry meterRegistry)
+    {
         this.restTemplate = genericRestTemplate;
+        this.eventPublisher = eventPublisher;
+        this.transferTimer = Timer.builder("content.download").
+            tag("phase", "transfer").
+            description("Time spent receiving world content archives, per attempt").
+            register(meterRegistry);
+        this.extractTimer = Timer.builder("content.download").
+            tag("phase", "extract").
+            description("Time spent unzipping downloaded world content archives").
+            register(meterRegistry);
+        this.transferBytes = DistributionSummary.builder("content.download.bytes").
+            baseUnit("bytes").
+            tag("phase", "transfer").
+            description("Bytes of world content archives received, per attempt").
+            register(meterRegistry);
+        this.extractBytes = DistributionSummary.builder("content.download.bytes").
+            baseUnit("bytes").
+            tag("phase", "extract").
+            description("Bytes of world content DBs unzipped from downloaded archives").
+            register(meterRegistry);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("manifest-refresh-");
+        threadFactory.setDaemon(true);
+        this.manifestRefreshExecutor = Executors.newSingleThreadExecutor(threadFactory);
     }
 
+    @PreDestroy
+    public void shutdown() {
+        manifestRefreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the cached manifest. Only the first call waits on Bungie; once the cached copy is older than
+     * {@code manifest.maxAgeSeconds} it is still returned, and revalidated in the background.
+     */
     public ResponseEntity<BungieResponseWrapper<DestinyManifest>> getManifest() {
+        CachedManifest cached = cachedManifest.get();
+        if (cached == null) {
+            cached = refreshManifest();
+        } else if (cached.isOlderThan(manifestMaxAgeSeconds) && manifestRefreshing.compareAndSet(false, true)) {
+            try {
+                manifestRefreshExecutor.execute(() -> {
+                    try {
+                        refreshManifest();
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Failed to refresh the manifest; serving the cached copy", e);
+                    } finally {
+                        manifestRefreshing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                manifestRefreshing.set(false);
+            }
+        }
+        return ResponseEntity.ok(cached.getManifest());
+    }
+
+    /**
+     * Revalidates the cached manifest with a conditional request, or fetches it if nothing is cached yet. Publishes a
+     * {@link ManifestVersionChangedEvent} when Bungie returns a manifest with a new version.
+     */
+    public synchronized CachedManifest refreshManifest() {
+        CachedManifest cached = cachedManifest.get();
+        HttpHeaders headers = apiHeaders();
+        if (cached != null && cached.getETag() != null) {
+            headers.setIfNoneMatch(cached.getETag());
+        }
+        if (cached != null && cached.getLastModified() >= 0) {
+            headers.setIfModifiedSince(cached.getLastModified());
+        }
+
         URI manifestUrl = uriFor(MANIFEST_PATH);
         ParameterizedTypeReference<BungieResponseWrapper<DestinyManifest>> responseType = bungieResponseFor(
             DestinyManifest.class);
-        return restTemplate.exchange(manifestUrl, GET, emptyEntity(), responseType);
+        ResponseEntity<BungieResponseWrapper<DestinyManifest>> response = restTemplate.exchange(manifestUrl, GET,
+            new HttpEntity<>(null, headers), responseType);
+
+        if (response.getStatusCode() == NOT_MODIFIED && cached != null) {
+            CachedManifest revalidated = new CachedManifest(cached.getManifest(), cached.getETag(),
+                cached.getLastModified(), System.nanoTime());
+            cachedManifest.set(revalidated);
+            return revalidated;
+        }
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            throw new IllegalStateException("Unexpected " + response.getStatusCode() + " response for the manifest");
+        }
+
+        CachedManifest refreshed = new CachedManifest(response.getBody(), response.getHeaders().getETag(),
+            response.getHeaders().getLastModified(), System.nanoTime());
+        cachedManifest.set(refreshed);
+
+        String previousVersion = cached == null ? null : versionOf(cached);
+        String version = versionOf(refreshed);
+        if (previousVersion != null && !previousVersion.equals(version)) {
+            LOGGER.info("Manifest version changed from {} to {}", previousVersion, version);
+            eventPublisher.publishEvent(new ManifestVersionChangedEvent(this, previousVersion, version,
+                refreshed.getManifest().getResponse()));
+        }
+        return refreshed;
+    }
+
+    private static String versionOf(CachedManifest cached) {
+        DestinyManifest manifest = cached.getManifest().getResponse();
+        return manifest == null ? null : manifest.getVersion();
     }
 
+    /**
+     * Downloads and unzips a world content DB into the scratch directory, unless it is already there.
+     * <p>
+     * The archive is streamed to a {@code .part} file that later attempts resume with a {@code Range} request, and is
+     * checked against the server's length and {@code Content-MD5} (when sent) before it is unzipped. Files only appear
+     * under their final names once they are complete, so an interrupted download is never mistaken for a finished one.
+     * Concurrent calls for the same file share a single download.
+     */
     public Path downloadWorldContent(String fileName) throws IOException {
+        return downloads.execute(fileName, () -> download(fileName));
+    }
+
+    private Path download(String fileName) throws IOException {
         Path outputDirectory = Paths.get(scratchDirectory);
         Path outputFile = outputDirectory.resolve(Paths.get(fileName).getFileName());
         if (Files.exists(outputFile)) {
@@ -57,19 +223,133 @@ public class PublicApiService extends AbstractBungieApiService {
         }
 
         URI contentUrl = uriFor(fileName);
+        Path archiveFile = outputDirectory.resolve(outputFile.getFileName() + ".zip.part");
+        Path databaseFile = downloadDatabase(contentUrl, archiveFile, outputDirectory, fileName);
+        Files.delete(archiveFile);
+        createCurrentSoftLink(databaseFile);
+        return databaseFile;
+    }
 
-        ResponseEntity<Resource> contentResource = restTemplate
-            .exchange(contentUrl, GET, emptyEntity(), Resource.class);
+    private Path downloadDatabase(URI contentUrl, Path archiveFile, Path outputDirectory, String fileName)
+        throws IOException
+    {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long transferStartNanos = System.nanoTime();
+                try {
+                    restTemplate.execute(contentUrl, GET, request -> {
+                        request.getHeaders().putAll(apiHeaders());
+                        if (Files.exists(archiveFile)) {
+                            request.getHeaders().setRange(
+                                singletonList(HttpRange.createByteRange(Files.size(archiveFile))));
+                        }
+                    }, response -> {
+                        writeArchive(response, archiveFile);
+                        return null;
+                    });
+                } finally {
+                    transferTimer.record(System.nanoTime() - transferStartNanos, TimeUnit.NANOSECONDS);
+                }
+
+                long extractStartNanos = System.nanoTime();
+                Path databaseFile = extractArchive(archiveFile, outputDirectory, fileName);
+                extractTimer.record(System.nanoTime() - extractStartNanos, TimeUnit.NANOSECONDS);
+                return databaseFile;
+            } catch (HttpClientErrorException e) {
+                if (e.getStatusCode() != REQUESTED_RANGE_NOT_SATISFIABLE || attempt >= downloadMaxAttempts) {
+                    throw e;
+                }
+                LOGGER.warn("Server rejected resuming {} from byte {}; restarting the download", contentUrl,
+                    Files.size(archiveFile));
+                Files.delete(archiveFile);
+            } catch (ResourceAccessException | CorruptDownloadException e) {
+                if (attempt >= downloadMaxAttempts) {
+                    throw e;
+                }
+                LOGGER.warn("Attempt {} of {} to download {} failed: {}", attempt, downloadMaxAttempts, contentUrl,
+                    e.getMessage());
+            }
 
+            try {
+                Thread.sleep(downloadRetryDelayMillis * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry download of " + contentUrl);
+            }
+        }
+    }
+
+    private void writeArchive(ClientHttpResponse response, Path archiveFile) throws IOException {
+        HttpHeaders headers = response.getHeaders();
+        boolean resumed = response.getStatusCode() == PARTIAL_CONTENT;
+        long offset = resumed ? Files.size(archiveFile) : 0;
+        long expectedSize = expectedSize(headers, offset);
+
+        OpenOption[] openOptions = resumed ?
+            new OpenOption[]{CREATE, APPEND} :
+            new OpenOption[]{CREATE, TRUNCATE_EXISTING, WRITE};
+        try (OutputStream outputStream = Files.newOutputStream(archiveFile, openOptions)) {
+            transferBytes.record(IOUtils.copyLarge(response.getBody(), outputStream));
+        }
+
+        long size = Files.size(archiveFile);
+        if (expectedSize >= 0 && size < expectedSize) {
+            throw new IOException("Download of " + archiveFile.getFileName() + " stopped at byte " + size + " of " +
+                expectedSize);
+        } else if (expectedSize >= 0 && size > expectedSize) {
+            Files.delete(archiveFile);
+            throw new CorruptDownloadException(archiveFile + " is " + size + " bytes; expected " + expectedSize);
+        }
+
+        String expectedMd5 = headers.getFirst(CONTENT_MD5);
+        if (expectedMd5 != null) {
+            String md5;
+            try (InputStream inputStream = Files.newInputStream(archiveFile)) {
+                md5 = Base64.getEncoder().encodeToString(DigestUtils.md5(inputStream));
+            }
+            if (!md5.equals(expectedMd5)) {
+                Files.delete(archiveFile);
+                throw new CorruptDownloadException(archiveFile + " has MD5 " + md5 + "; expected " + expectedMd5);
+            }
+        }
+    }
+
+    /**
+     * Returns the full size of the archive being downloaded, or -1 if the server didn't say.
+     */
+    private long expectedSize(HttpHeaders headers, long offset) throws IOException {
+        String contentRange = headers.getFirst(HttpHeaders.CONTENT_RANGE);
+        if (contentRange != null) {
+            Matcher matcher = CONTENT_RANGE_PATTERN.matcher(contentRange);
+            if (!matcher.matches() || Long.parseLong(matcher.group(1)) != offset) {
+                throw new CorruptDownloadException("Can't resume from byte " + offset + " with Content-Range " +
+                    contentRange);
+            }
+            return "*".equals(matcher.group(2)) ? -1 : Long.parseLong(matcher.group(2));
+        }
+        long contentLength = headers.getContentLength();
+        return contentLength < 0 ? -1 : offset + contentLength;
+    }
+
+    /**
+     * Unzips the single world content DB in {@code archiveFile}. Entries are extracted to temporary files, which lets
+     * {@link ZipInputStream} check each entry's CRC before it is moved into place.
+     */
+    private Path extractArchive(Path archiveFile, Path outputDirectory, String fileName) throws IOException {
         List<Path> outputPaths = new ArrayList<>();
-        try (ZipInputStream zipInputStream = new ZipInputStream(contentResource.getBody().getInputStream())) {
+        try (ZipInputStream zipInputStream = new ZipInputStream(Files.newInputStream(archiveFile))) {
 
             ZipEntry zipEntry;
             while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                Path outputPath = outputDirectory.resolve(zipEntry.getName());
-                writeToPath(zipInputStream, outputPath);
+                Path outputPath = outputDirectory.resolve(Paths.get(zipEntry.getName()).getFileName());
+                Path temporaryPath = outputPath.resolveSibling(outputPath.getFileName() + ".tmp");
+                writeToPath(zipInputStream, temporaryPath);
+                Files.move(temporaryPath, outputPath, ATOMIC_MOVE);
                 outputPaths.add(outputPath);
             }
+        } catch (ZipException e) {
+            Files.delete(archiveFile);
+            throw new CorruptDownloadException("Corrupt world content archive for " + fileName + ": " + e.getMessage());
         }
 
         if (outputPaths.size() != 1) {
@@ -77,27 +357,60 @@ public class PublicApiService extends AbstractBungieApiService {
                 "Incorrect number of world content files downloaded from " + fileName + "; expected 1, but got " +
                     outputPaths.size() + ": " + outputPaths);
         }
-
-        Path databaseFile = outputPaths.get(0);
-        createCurrentSoftLink(databaseFile);
-        return databaseFile;
+        return outputPaths.get(0);
     }
 
     private void createCurrentSoftLink(Path databaseFile) throws IOException {
         Path currentSoftLink = databaseFile.getParent().resolve("current");
-        if (Files.exists(currentSoftLink)) {
-            Path previousSoftLink = databaseFile.getParent().resolve("previous");
-            Files.deleteIfExists(previousSoftLink);
+        Path currentDatabaseFile = databaseFile.toAbsolutePath();
+        if (Files.isSymbolicLink(currentSoftLink)) {
             Path previousDatabaseFile = Files.readSymbolicLink(currentSoftLink);
-            Files.createSymbolicLink(previousSoftLink, previousDatabaseFile);
-            Files.delete(currentSoftLink);
+            if (previousDatabaseFile.equals(currentDatabaseFile)) {
+                return;
+            }
+            replaceSoftLink(databaseFile.getParent().resolve("previous"), previousDatabaseFile);
         }
-        Files.createSymbolicLink(currentSoftLink, databaseFile.toAbsolutePath());
+        replaceSoftLink(currentSoftLink, currentDatabaseFile);
+    }
+
+    /**
+     * Points {@code softLink} at {@code target} by renaming a new link over it, so readers never see it missing.
+     */
+    private void replaceSoftLink(Path softLink, Path target) throws IOException {
+        Path temporarySoftLink = softLink.resolveSibling(softLink.getFileName() + ".tmp");
+        Files.deleteIfExists(temporarySoftLink);
+        Files.createSymbolicLink(temporarySoftLink, target);
+        Files.move(temporarySoftLink, softLink, ATOMIC_MOVE);
     }
 
     private void writeToPath(ZipInputStream zipInputStream, Path outputPath) throws IOException {
-        try (OutputStream outputStream = Files.newOutputStream(outputPath, CREATE_NEW)) {
-            IOUtils.copy(zipInputStream, outputStream);
+        try (OutputStream outputStream = Files.newOutputStream(outputPath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            extractBytes.record(IOUtils.copyLarge(zipInputStream, outputStream));
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class CachedManifest {
+        private final BungieResponseWrapper<DestinyManifest> manifest;
+        private final String eTag;
+        private final long lastModified;
+        private final long fetchedAtNanos;
+
+        private boolean isOlderThan(long maxAgeSeconds) {
+            return System.nanoTime() - fetchedAtNanos > TimeUnit.SECONDS.toNanos(maxAgeSeconds);
+        }
+    }
+
+    /**
+     * Thrown when a downloaded archive fails a check and has been discarded, so the next attempt starts over.
+     */
+    private static class CorruptDownloadException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private CorruptDownloadException(String message) {
+            super(message);
         }
     }
 }
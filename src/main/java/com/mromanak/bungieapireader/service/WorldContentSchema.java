@@ -0,0 +1,46 @@
+package com.mromanak.bungieapireader.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class WorldContentSchema {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorldContentSchema.class);
+
+    private WorldContentSchema() {
+    }
+
+    /**
+     * Returns the row count of every {@code Destiny*Definition} table in a world content DB that is keyed by a
+     * definition hash {@code id} column. Tables keyed by anything else (e.g. {@code DestinyHistoricalStatsDefinition})
+     * cannot be merged by hash and are skipped.
+     */
+    static Map<String, Long> definitionTables(ContentDataSourceRegistry.Lease lease) {
+        JdbcTemplate jdbcTemplate = lease.getJdbcTemplate();
+
+        List<String> tableNames = jdbcTemplate.queryForList(
+            "SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE 'Destiny%Definition' ORDER BY name",
+            String.class);
+        Map<String, Long> definitionTables = new LinkedHashMap<>();
+        for (String tableName : tableNames) {
+            List<String> columns = jdbcTemplate.query("PRAGMA table_info(" + tableName + ")",
+                (rs, i) -> rs.getString("name"));
+            if (!columns.contains("id") || !columns.contains("json")) {
+                LOGGER.info("Skipping {} in {}; it has no id column", tableName, lease.getPath());
+                continue;
+            }
+            Long rowCount = jdbcTemplate.queryForObject("SELECT count(*) FROM " + tableName, Long.class);
+            definitionTables.put(tableName, rowCount);
+        }
+        return definitionTables;
+    }
+
+    static String diffTableName(String tableName) {
+        return tableName.replaceFirst("Definition$", "Diff");
+    }
+}
@@ -0,0 +1,97 @@
+package com.mromanak.bungieapireader.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Collapses concurrent calls for the same key into one. The first caller does the work; callers that arrive while it
+ * is in flight wait for and share its result, or its exception. Nothing is kept once the call finishes, so a caller
+ * arriving after that does the work again.
+ * <p>
+ * Cancellation isn't shared: if the caller doing the work is cancelled or interrupted, the callers waiting on it start
+ * a new call rather than failing with it.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    public <E extends Exception> V execute(K key, Work<V, E> work) throws E {
+        return execute(key, work, () -> {
+        });
+    }
+
+    /**
+     * Does the work for {@code key}, or waits for the call already doing it, in which case {@code onJoin} is run first.
+     */
+    public <E extends Exception> V execute(K key, Work<V, E> work, Runnable onJoin) throws E {
+        while (true) {
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> existingFlight = inFlight.putIfAbsent(key, flight);
+            if (existingFlight == null) {
+                return run(key, flight, work);
+            }
+
+            onJoin.run();
+            try {
+                return await(key, existingFlight);
+            } catch (AbandonedFlightException e) {
+                // The caller doing the work was cancelled, so try again, either doing the work or joining another call
+                inFlight.remove(key, existingFlight);
+            }
+        }
+    }
+
+    private <E extends Exception> V run(K key, CompletableFuture<V> flight, Work<V, E> work) throws E {
+        try {
+            V result = work.get();
+            flight.complete(result);
+            return result;
+        } catch (Throwable t) {
+            if (t instanceof CancellationException || t instanceof InterruptedException ||
+                Thread.currentThread().isInterrupted()) {
+                flight.completeExceptionally(new AbandonedFlightException(t));
+            } else {
+                flight.completeExceptionally(t);
+            }
+            throw t;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends Exception> V await(K key, CompletableFuture<V> flight) throws E {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the in-flight call for " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            // Work<V, E> can only throw checked exceptions of type E
+            throw (E) cause;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Work<V, E extends Exception> {
+        V get() throws E;
+    }
+
+    private static class AbandonedFlightException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private AbandonedFlightException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -2,4 +2,68 @@ CREATE TABLE IF NOT EXISTS ContentFiles (
     fileId INTEGER PRIMARY KEY AUTOINCREMENT,
     fileName TEXT UNIQUE,
     downloadedAt INT
-);
\ No newline at end of file
+);
+
+CREATE TABLE IF NOT EXISTS InventoryItems (
+    hashId INTEGER,
+    fileId INTEGER,
+    jsonMd5 TEXT,
+    PRIMARY KEY (fileId, hashId)
+);
+
+CREATE INDEX IF NOT EXISTS InventoryItems_hashId ON InventoryItems (hashId, fileId);
+
+CREATE TABLE IF NOT EXISTS Lore (
+    hashId INTEGER,
+    fileId INTEGER,
+    jsonMd5 TEXT,
+    PRIMARY KEY (fileId, hashId)
+);
+
+CREATE INDEX IF NOT EXISTS Lore_hashId ON Lore (hashId, fileId);
+
+CREATE TABLE IF NOT EXISTS ExportedTables (
+    fileId INTEGER,
+    tableName TEXT,
+    exportedAt INT,
+    PRIMARY KEY (fileId, tableName)
+);
+
+CREATE TABLE IF NOT EXISTS DefinitionDigests (
+    fileId INTEGER,
+    tableName TEXT,
+    hashId INTEGER,
+    jsonMd5 TEXT,
+    PRIMARY KEY (fileId, tableName, hashId)
+);
+
+CREATE TABLE IF NOT EXISTS BlobDictionaries (
+    dictionaryId INTEGER PRIMARY KEY AUTOINCREMENT,
+    createdAt INT,
+    data BLOB
+);
+
+CREATE TABLE IF NOT EXISTS DefinitionBlobs (
+    jsonMd5 TEXT PRIMARY KEY,
+    dictionaryId INTEGER,
+    rawLength INTEGER,
+    data BLOB
+);
+
+CREATE TABLE IF NOT EXISTS HistoryFiles (
+    fileId INTEGER PRIMARY KEY,
+    recordedAt INT
+);
+
+CREATE TABLE IF NOT EXISTS DefinitionHistory (
+    tableName TEXT,
+    hashId INTEGER,
+    fileId INTEGER,
+    change TEXT,
+    jsonMd5 TEXT,
+    chainLength INTEGER,
+    dictionaryId INTEGER,
+    rawLength INTEGER,
+    data BLOB,
+    PRIMARY KEY (tableName, hashId, fileId)
+);
@@ -0,0 +1,313 @@
+package com.mromanak.bungieapireader.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.fge.jsonpatch.JsonPatch;
+import com.github.fge.jsonpatch.diff.JsonDiff;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeyedJsonDiffTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Compares values the way json-patch does. It reads patch values as big decimals, so a number the patch adds may
+     * come out as a different kind of node than the one in the target document.
+     */
+    private static final Comparator<JsonNode> NUMERIC_EQUALITY = (a, b) -> {
+        if (a.isNumber() && b.isNumber()) {
+            return a.decimalValue().compareTo(b.decimalValue());
+        }
+        return a.equals(b) ? 0 : 1;
+    };
+
+    private final KeyedJsonDiff keyedDiff = new KeyedJsonDiff();
+
+    @Test
+    public void identicalDocumentsProduceAnEmptyPatch() {
+        JsonNode patch = assertEquivalent(
+            "{'hash': 1, 'stats': [{'statHash': 1, 'value': 2}], 'tags': ['a', 'b']}",
+            "{'hash': 1, 'stats': [{'statHash': 1, 'value': 2}], 'tags': ['a', 'b']}");
+        assertThat(patch.size()).isZero();
+    }
+
+    @Test
+    public void objectFieldsAreAddedRemovedAndReplaced() {
+        assertEquivalent(
+            "{'a': 1, 'b': {'c': true, 'd': 'x'}, 'e': null}",
+            "{'a': 2, 'b': {'c': true, 'f': [1]}, 'g': null}");
+    }
+
+    @Test
+    public void reorderedKeyedArrayIsMatchedByIdentityKey() {
+        JsonNode patch = assertEquivalent(
+            "{'stats': [{'statHash': 1, 'value': 10}, {'statHash': 2, 'value': 20}, {'statHash': 3, 'value': 30}]}",
+            "{'stats': [{'statHash': 3, 'value': 30}, {'statHash': 1, 'value': 10}, {'statHash': 2, 'value': 20}]}");
+        assertThat(patch.size()).isEqualTo(1);
+        assertThat(patch.get(0).get("op").asText()).isEqualTo("move");
+    }
+
+    @Test
+    public void keyedArrayElementsAreAddedRemovedMovedAndDiffed() {
+        assertEquivalent(
+            "{'perks': [{'perkHash': 1, 'v': 1}, {'perkHash': 2, 'v': 2}, {'perkHash': 3, 'v': 3}, {'perkHash': 4}]}",
+            "{'perks': [{'perkHash': 5}, {'perkHash': 3, 'v': 4}, {'perkHash': 1, 'v': 1}, {'perkHash': 6}]}");
+        assertEquivalent(
+            "{'plugs': [{'plugItemHash': 1}, {'plugItemHash': 2}]}",
+            "{'plugs': [{'plugItemHash': 3}, {'plugItemHash': 4}, {'plugItemHash': 5}]}");
+    }
+
+    @Test
+    public void keyedArrayWithDuplicateIdentityKeysIsDiffedByPosition() {
+        assertEquivalent(
+            "{'stats': [{'statHash': 1, 'value': 10}, {'statHash': 1, 'value': 11}, {'statHash': 2, 'value': 20}]}",
+            "{'stats': [{'statHash': 2, 'value': 20}, {'statHash': 1, 'value': 11}, {'statHash': 1, 'value': 10}]}");
+        assertEquivalent(
+            "{'stats': [{'statHash': 1, 'value': 10}, {'statHash': 2, 'value': 20}]}",
+            "{'stats': [{'statHash': 2, 'value': 20}, {'statHash': 2, 'value': 21}]}");
+    }
+
+    @Test
+    public void keyedArrayWithMissingOrNonScalarIdentityKeysIsDiffedByPosition() {
+        assertEquivalent(
+            "{'stats': [{'statHash': 1, 'value': 10}, {'value': 20}, {'statHash': 3}]}",
+            "{'stats': [{'statHash': 3}, {'statHash': 1, 'value': 10}, {'value': 21}]}");
+        assertEquivalent(
+            "{'stats': [{'statHash': 1}, {'statHash': 2}]}",
+            "{'stats': [{'statHash': 2}, {'value': 1}]}");
+        assertEquivalent(
+            "{'stats': [{'statHash': null}, {'statHash': 2}]}",
+            "{'stats': [{'statHash': 2}, {'statHash': null}]}");
+        assertEquivalent(
+            "{'stats': [{'statHash': {'a': 1}}, {'statHash': [2]}]}",
+            "{'stats': [{'statHash': [2]}, {'statHash': {'a': 1}}]}");
+    }
+
+    @Test
+    public void keyedArrayFallsBackToTheNextIdentityKey() {
+        assertEquivalent(
+            "{'a': [{'hash': 1, 'itemHash': 7}, {'hash': 1, 'itemHash': 8}, {'hash': 2, 'itemHash': 9}]}",
+            "{'a': [{'hash': 2, 'itemHash': 9}, {'hash': 1, 'itemHash': 8}, {'hash': 3, 'itemHash': 7}]}");
+    }
+
+    @Test
+    public void arraysOfNonObjectElementsAreDiffedByPosition() {
+        assertEquivalent("{'a': [1, 2, 3]}", "{'a': [3, 2, 1]}");
+        assertEquivalent("{'a': ['x', null, true, 1.5]}", "{'a': [null, 'x', false]}");
+        assertEquivalent("{'a': [[1, 2], [3]]}", "{'a': [[3], [1, 2], []]}");
+        assertEquivalent("{'a': [{'hash': 1}, 2, 'three']}", "{'a': [2, {'hash': 1}, 'three']}");
+        assertEquivalent("{'a': [1, {'hash': 1}]}", "{'a': [{'hash': 1}, 1]}");
+        assertEquivalent("{'a': []}", "{'a': [{'hash': 1}]}");
+        assertEquivalent("{'a': [{'hash': 1}]}", "{'a': []}");
+    }
+
+    @Test
+    public void typeChangesAreReplaced() {
+        assertEquivalent("{'a': {'b': 1}}", "{'a': [1]}");
+        assertEquivalent("{'a': [1]}", "{'a': 'one'}");
+        assertEquivalent("{'a': 1}", "{'a': 1.0}");
+        assertEquivalent("{'a': null}", "{'a': false}");
+        assertEquivalent("{'a': '1'}", "{'a': 1}");
+    }
+
+    @Test
+    public void typeChangesAtTheRootAreReplaced() {
+        assertEquivalent("{'a': 1}", "[1, 2]");
+        assertEquivalent("[1, 2]", "{'a': 1}");
+        assertEquivalent("{'a': 1}", "'a'");
+        assertEquivalent("1", "null");
+        assertEquivalent("true", "false");
+        assertEquivalent("[{'hash': 1}, {'hash': 2}]", "[{'hash': 2}, {'hash': 3}]");
+    }
+
+    @Test
+    public void pointerTokensAreEscaped() {
+        assertEquivalent(
+            "{'a/b': 1, 'c~d': 2, '~1': 3, '/~0/': {'x~/y': [1]}, '': 4}",
+            "{'a/b': 2, 'c~d': 3, '~1': 4, '/~0/': {'x~/y': [1, 2]}, '': 5}");
+        assertEquivalent("{'a/b': 1, 'c~d': 2}", "{'~01': 1, '/': 2}");
+        assertEquivalent("{'k': [{'hash': 'a/b'}, {'hash': 'c~d'}]}", "{'k': [{'hash': 'c~d'}, {'hash': 'a/b'}]}");
+    }
+
+    @Test
+    public void prefixAndSuffixInsertionsAreSingleOperations() {
+        assertThat(assertEquivalent("{'a': [1, 2, 3]}", "{'a': [0, 1, 2, 3]}").size()).isEqualTo(1);
+        assertThat(assertEquivalent("{'a': [1, 2, 3]}", "{'a': [1, 2, 3, 4]}").size()).isEqualTo(1);
+        assertThat(assertEquivalent("{'a': [1, 2, 3]}", "{'a': [1, 2, 9, 3]}").size()).isEqualTo(1);
+        assertThat(assertEquivalent("{'a': [1, 2, 3]}", "{'a': [2, 3]}").size()).isEqualTo(1);
+        assertThat(assertEquivalent("{'a': [1, 2, 3]}", "{'a': [1, 2]}").size()).isEqualTo(1);
+        assertEquivalent("{'a': [1, 1, 1]}", "{'a': [1, 1, 1, 1]}");
+        assertEquivalent("{'a': [1, 2, 1]}", "{'a': [1, 2, 1, 2, 1]}");
+        assertEquivalent("{'a': [1, 2, 3, 4]}", "{'a': [1, 5, 6, 7, 8, 4]}");
+        assertEquivalent("{'a': [1, 5, 6, 7, 8, 4]}", "{'a': [1, 2, 3, 4]}");
+    }
+
+    @Test
+    public void randomlyMutatedDefinitionsAreEquivalentToJsonPatch() throws Exception {
+        Random random = new Random(22);
+        for (int i = 0; i < 2000; i++) {
+            JsonNode source = randomDefinition(random);
+            JsonNode target = mutate(random, source.deepCopy());
+            JsonNode patch = keyedDiff.diff(source, target);
+            assertSameDocument(JsonPatch.fromJson(patch).apply(source), target,
+                "keyed patch " + patch + " from " + source + " to " + target);
+            assertSameDocument(JsonPatch.fromJson(JsonDiff.asJson(source, target)).apply(source), target,
+                "json-patch from " + source + " to " + target);
+        }
+    }
+
+    private JsonNode assertEquivalent(String source, String target) {
+        JsonNode sourceNode = json(source);
+        JsonNode targetNode = json(target);
+        JsonNode patch = keyedDiff.diff(sourceNode, targetNode);
+        try {
+            assertSameDocument(JsonPatch.fromJson(patch).apply(sourceNode), targetNode,
+                "keyed patch " + patch + " from " + source + " to " + target);
+        } catch (Exception e) {
+            throw new AssertionError("Could not apply keyed patch " + patch + " from " + source + " to " + target, e);
+        }
+        assertThat(sourceNode).as("source document is left unchanged").isEqualTo(json(source));
+        return patch;
+    }
+
+    private static void assertSameDocument(JsonNode actual, JsonNode expected, String description) {
+        assertThat(actual.equals(NUMERIC_EQUALITY, expected)).
+            as("%s produced %s", description, actual).
+            isTrue();
+    }
+
+    private static JsonNode json(String singleQuoted) {
+        try {
+            return OBJECT_MAPPER.readTree(singleQuoted.replace('\'', '"'));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(singleQuoted, e);
+        }
+    }
+
+    private static JsonNode randomDefinition(Random random) {
+        ObjectNode definition = JsonNodeFactory.instance.objectNode();
+        definition.put("hash", random.nextInt(1000));
+        definition.put("redacted", random.nextBoolean());
+        definition.putObject("displayProperties").
+            put("name", "Item " + random.nextInt(100)).
+            put("description", random.nextBoolean() ? "a/b" : "c~d");
+        definition.set("stats", keyedArray(random, "statHash", random.nextInt(6)));
+        definition.set("perks", keyedArray(random, "perkHash", random.nextInt(4)));
+        ArrayNode tags = definition.putArray("tags");
+        for (int i = random.nextInt(5); i > 0; i--) {
+            tags.add(random.nextInt(4));
+        }
+        return definition;
+    }
+
+    private static ArrayNode keyedArray(Random random, String identityKey, int size) {
+        ArrayNode array = JsonNodeFactory.instance.arrayNode();
+        for (int i = 0; i < size; i++) {
+            array.addObject().put(identityKey, random.nextInt(10)).put("value", random.nextInt(3));
+        }
+        return array;
+    }
+
+    /**
+     * Applies a few random edits anywhere in the tree: changing, adding or removing a field or element, shuffling an
+     * array, duplicating an array element, or replacing a value with one of a different type.
+     */
+    private static JsonNode mutate(Random random, JsonNode root) {
+        for (int edits = 1 + random.nextInt(4); edits > 0; edits--) {
+            List<JsonNode> containers = new ArrayList<>();
+            collectContainers(root, containers);
+            JsonNode container = containers.get(random.nextInt(containers.size()));
+            if (container.isObject()) {
+                mutateObject(random, (ObjectNode) container);
+            } else {
+                mutateArray(random, (ArrayNode) container);
+            }
+        }
+        return random.nextInt(50) == 0 ? JsonNodeFactory.instance.arrayNode().add(root) : root;
+    }
+
+    private static void mutateObject(Random random, ObjectNode object) {
+        List<String> names = new ArrayList<>();
+        object.fieldNames().forEachRemaining(names::add);
+        String name = names.isEmpty() ? "x" : names.get(random.nextInt(names.size()));
+        switch (random.nextInt(3)) {
+            case 0:
+                object.remove(name);
+                break;
+            case 1:
+                object.set(random.nextBoolean() ? "new/field~" + random.nextInt(3) : name, randomValue(random));
+                break;
+            default:
+                object.put(name, random.nextInt(3));
+        }
+    }
+
+    private static void mutateArray(Random random, ArrayNode array) {
+        int size = array.size();
+        switch (random.nextInt(5)) {
+            case 0:
+                if (size > 0) {
+                    array.remove(random.nextInt(size));
+                }
+                break;
+            case 1:
+                array.insert(random.nextInt(size + 1), size > 0 && random.nextBoolean() ?
+                    array.get(random.nextInt(size)).deepCopy() : randomValue(random));
+                break;
+            case 2:
+                List<JsonNode> elements = new ArrayList<>();
+                array.forEach(elements::add);
+                Collections.shuffle(elements, random);
+                array.removeAll();
+                array.addAll(elements);
+                break;
+            case 3:
+                if (size > 0) {
+                    array.set(random.nextInt(size), randomValue(random));
+                }
+                break;
+            default:
+                if (size > 0 && array.get(0).isObject()) {
+                    Iterator<String> names = array.get(0).fieldNames();
+                    ((ObjectNode) array.get(random.nextInt(size))).remove(names.hasNext() ? names.next() : "x");
+                }
+        }
+    }
+
+    private static JsonNode randomValue(Random random) {
+        switch (random.nextInt(6)) {
+            case 0:
+                return JsonNodeFactory.instance.nullNode();
+            case 1:
+                return JsonNodeFactory.instance.textNode("v" + random.nextInt(3));
+            case 2:
+                return JsonNodeFactory.instance.numberNode(random.nextDouble());
+            case 3:
+                return JsonNodeFactory.instance.arrayNode().add(random.nextInt(3));
+            case 4:
+                return JsonNodeFactory.instance.objectNode().put("statHash", random.nextInt(10));
+            default:
+                return JsonNodeFactory.instance.numberNode(random.nextInt(10));
+        }
+    }
+
+    private static void collectContainers(JsonNode node, List<JsonNode> containers) {
+        if (node.isContainerNode()) {
+            containers.add(node);
+            node.forEach(child -> collectContainers(child, containers));
+        }
+    }
+}